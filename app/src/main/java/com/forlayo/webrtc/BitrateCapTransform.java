@@ -0,0 +1,54 @@
+package com.forlayo.webrtc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes b=AS (kbps) and b=TIAS (bps) bandwidth lines per m-line.
+ * <p>
+ * Caps are given per track id, a section gets the sum of the caps of the tracks it carries. With
+ * Plan B "screen" and "camera" share the video section, so their caps add up into one section
+ * budget (b=AS:2000 for 1500 + 500) that doesn't stop one track from taking it all; what holds
+ * each track to its own cap is the maxBitrateBps of its sender encodings. Sections carrying none of
+ * the tracks can get a cap by media kind.
+ * <p>
+ * Bandwidth lines tell the other side how much it may send, so a cap set here limits what the
+ * remote sends to us; both sides use the same values so each direction gets the same ceilings.
+ */
+final class BitrateCapTransform implements SdpTransform {
+
+    private final Map<String, Integer> trackCapsKbps = new LinkedHashMap<>();
+    private final Map<String, Integer> kindCapsKbps = new LinkedHashMap<>();
+
+    BitrateCapTransform capTrack(String trackId, int kbps) {
+        trackCapsKbps.put(trackId, kbps);
+        return this;
+    }
+
+    BitrateCapTransform capKind(String kind, int kbps) {
+        kindCapsKbps.put(kind, kbps);
+        return this;
+    }
+
+    @Override
+    public void apply(Sdp sdp) {
+        for (Sdp.MediaSection section : sdp.getMediaSections()) {
+            int kbps = 0;
+            for (Map.Entry<String, Integer> entry : trackCapsKbps.entrySet()) {
+                if (section.hasTrack(entry.getKey())) {
+                    kbps += entry.getValue();
+                }
+            }
+            if (kbps == 0) {
+                Integer kindCap = kindCapsKbps.get(section.getKind());
+                if (kindCap == null) {
+                    continue;
+                }
+                kbps = kindCap;
+            }
+            section.setBandwidth("AS", kbps);
+            section.setBandwidth("TIAS", kbps * 1000L);
+        }
+    }
+
+}
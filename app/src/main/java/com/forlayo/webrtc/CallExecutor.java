@@ -0,0 +1,63 @@
+package com.forlayo.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Serial executor owning the call state. Signaling parsing, negotiation and every PeerConnection
+ * callback are funneled through its single thread, the UI thread is only used for view work through
+ * {@link #executeOnUi(Runnable)}.
+ */
+class CallExecutor implements Executor {
+
+    private final HandlerThread thread;
+    private final Handler callHandler;
+    private final Handler uiHandler;
+
+    CallExecutor(String name) {
+        thread = new HandlerThread(name);
+        thread.start();
+        callHandler = new Handler(thread.getLooper());
+        uiHandler = new Handler(Looper.getMainLooper());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        callHandler.post(command);
+    }
+
+    void schedule(Runnable command, long delayMs) {
+        callHandler.postDelayed(command, delayMs);
+    }
+
+    void cancel(Runnable command) {
+        callHandler.removeCallbacks(command);
+    }
+
+    void executeOnUi(Runnable command) {
+        uiHandler.post(command);
+    }
+
+    void scheduleOnUi(Runnable command, long delayMs) {
+        uiHandler.postDelayed(command, delayMs);
+    }
+
+    void cancelOnUi(Runnable command) {
+        uiHandler.removeCallbacks(command);
+    }
+
+    boolean isCallThread() {
+        return Looper.myLooper() == thread.getLooper();
+    }
+
+    /**
+     * Runs what is already queued and stops the thread, nothing can be executed afterwards.
+     */
+    void quit() {
+        thread.quitSafely();
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.forlayo.webrtc;
+
+/**
+ * Monotonic timestamps of the set up phases of one call, from {@link Phase#START} to the first remote
+ * frame, turned into a single line JSON record when the call ends.
+ * <p>
+ * Each phase keeps its first mark, later ones (renegotiations, second remote track) are ignored.
+ * Marks are taken with {@link System#nanoTime()} and may come with a timestamp taken on another thread,
+ * but are stored from the call thread only.
+ */
+final class CallTimeline {
+
+    enum Phase {
+        START("start"),
+        ENGINE_READY("engineReady"),
+        CREATE_OFFER("createOffer"),
+        REMOTE_OFFER("remoteOffer"),
+        LOCAL_DESCRIPTION_CREATED("localDescriptionCreated"),
+        LOCAL_DESCRIPTION_SET("localDescriptionSet"),
+        SIGNALING_SENT("signalingSent"),
+        REMOTE_ANSWER("remoteAnswer"),
+        REMOTE_DESCRIPTION_SET("remoteDescriptionSet"),
+        CANDIDATES_DRAINED("candidatesDrained"),
+        ICE_CONNECTED("iceConnected"),
+        FIRST_REMOTE_FRAME("firstRemoteFrame");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] marks = new long[PHASES.length];
+    private final String role;
+    private final boolean warmEngine;
+
+    /**
+     * @param role       "caller" or "callee".
+     * @param warmEngine whether the media engine was already started.
+     */
+    CallTimeline(String role, boolean warmEngine, long startNanos) {
+        this.role = role;
+        this.warmEngine = warmEngine;
+        marks[Phase.START.ordinal()] = startNanos;
+    }
+
+    void mark(Phase phase) {
+        mark(phase, System.nanoTime());
+    }
+
+    void mark(Phase phase, long nanos) {
+        if (marks[phase.ordinal()] == 0) {
+            marks[phase.ordinal()] = nanos;
+        }
+    }
+
+    boolean hasMark(Phase phase) {
+        return marks[phase.ordinal()] != 0;
+    }
+
+    /**
+     * Milliseconds from {@link Phase#START} to the phase, -1 if it wasn't reached.
+     */
+    double elapsedMs(Phase phase) {
+        long mark = marks[phase.ordinal()];
+        return mark == 0 ? -1 : (mark - marks[Phase.START.ordinal()]) / 1_000_000.0;
+    }
+
+    /**
+     * Record such as {"role":"caller","warmEngine":true,"durationMs":5230.1,"phasesMs":{"engineReady":1.2,...}},
+     * with phases relative to start in reached order and missing phases left out.
+     *
+     * @param endNanos time the call ended.
+     */
+    String toRecord(long endNanos) {
+        StringBuilder builder = new StringBuilder(384);
+        builder.append("{\"role\":\"").append(role).append('"')
+                .append(",\"warmEngine\":").append(warmEngine)
+                .append(",\"connected\":").append(hasMark(Phase.ICE_CONNECTED))
+                .append(",\"durationMs\":");
+        appendMs(builder, endNanos - marks[Phase.START.ordinal()]);
+        builder.append(",\"phasesMs\":{");
+        boolean first = true;
+        for (int i = 1; i < PHASES.length; i++) {
+            if (marks[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append('"').append(PHASES[i].key).append("\":");
+            appendMs(builder, marks[i] - marks[Phase.START.ordinal()]);
+        }
+        return builder.append("}}").toString();
+    }
+
+    // One decimal is enough and avoids the double formatting of the platform.
+    private static void appendMs(StringBuilder builder, long nanos) {
+        long tenths = nanos / 100_000;
+        builder.append(tenths / 10).append('.').append(Math.abs(tenths % 10));
+    }
+
+}
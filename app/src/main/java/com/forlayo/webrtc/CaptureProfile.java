@@ -0,0 +1,91 @@
+package com.forlayo.webrtc;
+
+/**
+ * Capture format of a video track: the capturer is started with it, the VideoSource adapts its
+ * output to it and the degradation preference says what to sacrifice when the encoder can't keep up.
+ * <p>
+ * Shared screens are mostly text and still content, so they keep resolution and lose frame rate;
+ * camera is the other way around.
+ */
+public final class CaptureProfile {
+
+    public enum DegradationPreference {
+        MAINTAIN_RESOLUTION,
+        MAINTAIN_FRAMERATE
+    }
+
+    public static final CaptureProfile SCREEN = new CaptureProfile(1920, 1080, 15, DegradationPreference.MAINTAIN_RESOLUTION);
+    /**
+     * For screens showing motion (videos, animations) at the cost of legibility: not a screencast
+     * source, so under load resolution drops first and unchanged frames aren't filtered out.
+     */
+    public static final CaptureProfile SCREEN_MOTION = new CaptureProfile(1280, 720, 30, DegradationPreference.MAINTAIN_FRAMERATE);
+    public static final CaptureProfile CAMERA = new CaptureProfile(640, 480, 30, DegradationPreference.MAINTAIN_FRAMERATE);
+    public static final CaptureProfile CAMERA_LOW = new CaptureProfile(320, 240, 15, DegradationPreference.MAINTAIN_FRAMERATE);
+
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final DegradationPreference degradationPreference;
+
+    public CaptureProfile(int width, int height, int fps, DegradationPreference degradationPreference) {
+        if (width <= 0 || height <= 0 || fps <= 0) {
+            throw new IllegalArgumentException("Invalid capture profile " + width + "x" + height + "@" + fps);
+        }
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.degradationPreference = degradationPreference;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public DegradationPreference getDegradationPreference() {
+        return degradationPreference;
+    }
+
+    /**
+     * Sources created as screencast keep resolution under load, the others keep frame rate.
+     */
+    boolean isScreencast() {
+        return degradationPreference == DegradationPreference.MAINTAIN_RESOLUTION;
+    }
+
+    /**
+     * Largest size with the aspect ratio and orientation of the given display that fits in this
+     * profile (in either orientation), rounded down to even dimensions as encoders need.
+     */
+    CaptureProfile fitTo(int displayWidth, int displayHeight) {
+        if (displayWidth <= 0 || displayHeight <= 0) {
+            return this;
+        }
+        int maxLong = Math.max(width, height);
+        int maxShort = Math.min(width, height);
+        boolean landscape = displayWidth >= displayHeight;
+        int displayLong = landscape ? displayWidth : displayHeight;
+        int displayShort = landscape ? displayHeight : displayWidth;
+
+        double scale = Math.min(1.0, Math.min((double) maxLong / displayLong, (double) maxShort / displayShort));
+        int fitLong = ((int) (displayLong * scale)) & ~1;
+        int fitShort = ((int) (displayShort * scale)) & ~1;
+        return landscape
+                ? new CaptureProfile(fitLong, fitShort, fps, degradationPreference)
+                : new CaptureProfile(fitShort, fitLong, fps, degradationPreference);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + fps + " " + degradationPreference;
+    }
+
+}
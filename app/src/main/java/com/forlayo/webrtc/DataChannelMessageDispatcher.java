@@ -0,0 +1,118 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routes incoming DataChannel messages to registered handlers straight from the received buffer.
+ * <p>
+ * Binary messages are routed by their first byte (see {@link TouchEventCodec#TYPE_TOUCH}), text
+ * messages are decoded as UTF-8 into a reused char buffer. Handlers run on the calling thread (the
+ * WebRTC signaling thread) and must not keep the buffers they get after returning; a handler needing
+ * the UI thread has to copy what it needs and post it by itself.
+ * <p>
+ * Nothing is allocated per message once the char buffer has grown to fit the largest text message,
+ * {@link #getAllocationCount()} reports how many times that happened.
+ */
+final class DataChannelMessageDispatcher {
+
+    interface BinaryHandler {
+        /**
+         * @param data message, starting at its type byte. Only valid during the call.
+         */
+        void onBinaryMessage(ByteBuffer data);
+    }
+
+    interface TextHandler {
+        /**
+         * @param text decoded message. Only valid during the call, copy it to keep it.
+         */
+        void onTextMessage(CharSequence text);
+    }
+
+    private static final int INITIAL_TEXT_CAPACITY = 256;
+
+    private final BinaryHandler[] binaryHandlers = new BinaryHandler[256];
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private volatile TextHandler textHandler;
+    private CharBuffer textBuffer = CharBuffer.allocate(INITIAL_TEXT_CAPACITY);
+    private long allocationCount = 1;
+    private long unhandledCount;
+
+    void registerBinaryHandler(byte type, BinaryHandler handler) {
+        binaryHandlers[type & 0xFF] = handler;
+    }
+
+    void registerTextHandler(TextHandler handler) {
+        this.textHandler = handler;
+    }
+
+    /**
+     * Dispatches one message. The buffer position is left untouched.
+     */
+    void dispatch(ByteBuffer data, boolean binary) {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        int position = data.position();
+        try {
+            if (binary) {
+                dispatchBinary(data);
+            } else {
+                dispatchText(data);
+            }
+        } finally {
+            data.position(position);
+        }
+    }
+
+    private void dispatchBinary(ByteBuffer data) {
+        BinaryHandler handler = binaryHandlers[data.get(data.position()) & 0xFF];
+        if (handler == null) {
+            unhandledCount++;
+            return;
+        }
+        handler.onBinaryMessage(data);
+    }
+
+    private void dispatchText(ByteBuffer data) {
+        TextHandler handler = textHandler;
+        if (handler == null) {
+            unhandledCount++;
+            return;
+        }
+
+        // UTF-8 never produces more chars than bytes.
+        if (textBuffer.capacity() < data.remaining()) {
+            textBuffer = CharBuffer.allocate(Math.max(data.remaining(), textBuffer.capacity() * 2));
+            allocationCount++;
+        }
+
+        textBuffer.clear();
+        decoder.reset();
+        decoder.decode(data, textBuffer, true);
+        decoder.flush(textBuffer);
+        textBuffer.flip();
+        handler.onTextMessage(textBuffer);
+    }
+
+    /**
+     * Number of buffers allocated by this dispatcher since creation, including the initial one.
+     */
+    long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * Number of messages discarded because no handler was registered for them.
+     */
+    long getUnhandledCount() {
+        return unhandledCount;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Which DataChannel a binary message belongs on.
+ * <p>
+ * Pointer moves go {@link #POINTER}, unordered and never retransmitted: a lost or late move is made
+ * useless by the next one a frame later, while retransmitting it would hold every following move
+ * behind it. Anything that must arrive, and in order (touch down/up, layer selections, text), goes
+ * {@link #RELIABLE}.
+ */
+enum DataChannelRoute {
+
+    RELIABLE,
+    POINTER;
+
+    // MotionEvent.ACTION_MOVE, kept here so routing has no Android dependency.
+    static final int ACTION_MOVE = 2;
+
+    static DataChannelRoute of(ByteBuffer message) {
+        if (TouchEventCodec.isTouch(message) && TouchEventCodec.action(message) == ACTION_MOVE) {
+            return POINTER;
+        }
+        return RELIABLE;
+    }
+
+}
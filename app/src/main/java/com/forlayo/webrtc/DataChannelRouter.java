@@ -0,0 +1,45 @@
+package com.forlayo.webrtc;
+
+import org.webrtc.DataChannel;
+
+/**
+ * Sends each message on the channel of its {@link DataChannelRoute}: the reliable ordered
+ * "backcontrol" or the unordered, no-retransmit "pointer". Pointer messages fall back to backcontrol
+ * while the pointer channel isn't open, e.g. with a peer that doesn't create it. Call and UI threads,
+ * a channel cleared here is only disposed once the UI thread is past any send on it.
+ */
+class DataChannelRouter {
+
+    static final String LABEL_CONTROL = "backcontrol";
+    static final String LABEL_POINTER = "pointer";
+
+    private volatile DataChannel controlChannel;
+    private volatile DataChannel pointerChannel;
+
+    void setControlChannel(DataChannel channel) {
+        this.controlChannel = channel;
+    }
+
+    void setPointerChannel(DataChannel channel) {
+        this.pointerChannel = channel;
+    }
+
+    boolean hasChannel() {
+        return controlChannel != null;
+    }
+
+    /**
+     * @return false if there is no open channel for it or the channel refused it.
+     */
+    boolean send(DataChannel.Buffer message) {
+        if (message.binary && DataChannelRoute.of(message.data) == DataChannelRoute.POINTER) {
+            DataChannel pointer = pointerChannel;
+            if (pointer != null && pointer.state() == DataChannel.State.OPEN) {
+                return pointer.send(message);
+            }
+        }
+        DataChannel control = controlChannel;
+        return control != null && control.state() == DataChannel.State.OPEN && control.send(message);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.forlayo.webrtc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One send quality of a video track: capture resolution divided by a scale and an encoder bitrate cap.
+ * <p>
+ * A track has a ladder of layers, lowest quality first, and sends the one the receiver picked, so a
+ * viewer on a poor link asks for a lower layer instead of making the encoder degrade on its own.
+ */
+public final class EncodingLayer {
+
+    public static final List<EncodingLayer> SCREEN_LAYERS = ladder(
+            new EncodingLayer(2, 400),
+            new EncodingLayer(1, 1500));
+    public static final List<EncodingLayer> CAMERA_LAYERS = ladder(
+            new EncodingLayer(4, 100),
+            new EncodingLayer(2, 250),
+            new EncodingLayer(1, 500));
+
+    private final double scaleDownBy;
+    private final int maxBitrateKbps;
+
+    /**
+     * @param scaleDownBy    capture resolution is divided by it, at least 1.
+     * @param maxBitrateKbps encoder cap for this layer.
+     */
+    public EncodingLayer(double scaleDownBy, int maxBitrateKbps) {
+        if (!(scaleDownBy >= 1) || maxBitrateKbps <= 0) {
+            throw new IllegalArgumentException("Invalid encoding layer /" + scaleDownBy + " " + maxBitrateKbps + "kbps");
+        }
+        this.scaleDownBy = scaleDownBy;
+        this.maxBitrateKbps = maxBitrateKbps;
+    }
+
+    /**
+     * Validates a ladder: at least one layer, from lowest to highest quality, neither scale nor bitrate
+     * going down.
+     */
+    public static List<EncodingLayer> ladder(EncodingLayer... layers) {
+        if (layers.length == 0 || layers.length > 255) {
+            throw new IllegalArgumentException("A ladder needs 1 to 255 layers, got " + layers.length);
+        }
+        for (int i = 1; i < layers.length; i++) {
+            if (layers[i].scaleDownBy > layers[i - 1].scaleDownBy
+                    || layers[i].maxBitrateKbps < layers[i - 1].maxBitrateKbps) {
+                throw new IllegalArgumentException("Layers must go from lowest to highest quality: " + Arrays.toString(layers));
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(layers.clone()));
+    }
+
+    public double getScaleDownBy() {
+        return scaleDownBy;
+    }
+
+    public int getMaxBitrateKbps() {
+        return maxBitrateKbps;
+    }
+
+    /**
+     * Capture profile of this layer, dimensions rounded down to even values as encoders need.
+     */
+    CaptureProfile scale(CaptureProfile profile) {
+        if (scaleDownBy == 1) {
+            return profile;
+        }
+        int width = Math.max(2, ((int) (profile.getWidth() / scaleDownBy)) & ~1);
+        int height = Math.max(2, ((int) (profile.getHeight() / scaleDownBy)) & ~1);
+        return new CaptureProfile(width, height, profile.getFps(), profile.getDegradationPreference());
+    }
+
+    @Override
+    public String toString() {
+        return "/" + scaleDownBy + " " + maxBitrateKbps + "kbps";
+    }
+
+}
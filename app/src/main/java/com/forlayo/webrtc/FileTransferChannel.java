@@ -0,0 +1,520 @@
+package com.forlayo.webrtc;
+
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Sends and receives files over their own "transfer" DataChannel with {@link FileTransferCodec}
+ * messages, so "backcontrol" messages never wait behind file data in a channel queue.
+ * <p>
+ * Chunks are sent while the channel bufferedAmount is under {@link #HIGH_WATER} and sending resumes
+ * when it drains below {@link #LOW_WATER}. That keeps enough in flight to fill the SCTP association
+ * while bounding what other channels can find queued ahead of them. Files are sent one at a time in
+ * request order.
+ * <p>
+ * The receiver writes to a ".part" file named after the file name, size and CRC, and answers every
+ * offer with the length it already has, so a transfer cut by a closed channel or a new call goes on
+ * from there when offered again. The whole file CRC32 is checked before the part file is renamed,
+ * to a name not taken yet. Offers over the maximum size are refused with a DONE.
+ * <p>
+ * File I/O, transfer state and every call on the channel live on an own thread: WebRTC callbacks only
+ * copy what they need and post it. The channel is handed over to that thread and disposed there, so
+ * it's never used after disposal.
+ */
+class FileTransferChannel implements DataChannel.Observer {
+
+    private static final String TAG = FileTransferChannel.class.getCanonicalName();
+
+    static final String LABEL = "transfer";
+    static final long HIGH_WATER = 256 * 1024;
+    static final long LOW_WATER = 64 * 1024;
+    static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private static final long PROGRESS_STEP = 1024 * 1024;
+
+    private static final class Outgoing {
+        final File file;
+        long size = -1;
+        int crc;
+        int id;
+        boolean accepted;
+        FileChannel in;
+        long offset;
+        long lastProgress;
+
+        Outgoing(File file) {
+            this.file = file;
+        }
+    }
+
+    private static final class Incoming {
+        String name;
+        long size;
+        int crc;
+        File partFile;
+        RandomAccessFile out;
+        final CRC32 checksum = new CRC32();
+        long offset;
+        long lastProgress;
+    }
+
+    private final CallExecutor executor = new CallExecutor("FileTransfer");
+    private final File directory;
+    private final long maxSize;
+    private final ByteBuffer chunk = FileTransferCodec.allocateChunk();
+    private final DataChannel.Buffer chunkMessage = new DataChannel.Buffer(chunk, true);
+    private final Runnable drainedRunnable = this::onDrained;
+    private final AtomicBoolean drainPosted = new AtomicBoolean();
+    private volatile FileTransferListener listener;
+    // Set while sending waits for the channel to drain.
+    private volatile boolean waitingForDrain;
+
+    // Transfer thread only.
+    private DataChannel channel;
+    private final ArrayDeque<Outgoing> outgoing = new ArrayDeque<>();
+    private final Map<Integer, Incoming> incoming = new HashMap<>();
+    private Outgoing current;
+    private int nextTransferId;
+
+    /**
+     * @param directory where received files, and the parts of unfinished ones, are written.
+     */
+    FileTransferChannel(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize largest file accepted from the other party, bytes.
+     */
+    FileTransferChannel(File directory, long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid max size " + maxSize);
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    void setListener(FileTransferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a file, sent once the channel is open.
+     */
+    void send(File file) {
+        executor.execute(() -> {
+            outgoing.add(new Outgoing(file));
+            startNext();
+        });
+    }
+
+    /**
+     * Channel of the current call, null when it's closed. Unfinished transfers go on with the next.
+     * The channel is owned from here on: it's observed, and disposed on the transfer thread when
+     * replaced, callers must not dispose it.
+     */
+    void setDataChannel(DataChannel dataChannel) {
+        if (dataChannel != null) {
+            dataChannel.registerObserver(this);
+        }
+        executor.execute(() -> {
+            DataChannel previous = channel;
+            channel = dataChannel;
+            if (previous != null && previous != dataChannel) {
+                previous.unregisterObserver();
+                previous.dispose();
+            }
+            onChannelChanged();
+        });
+    }
+
+    /**
+     * Stops the transfer thread, nothing can be sent or received afterwards.
+     */
+    void release() {
+        setDataChannel(null);
+        executor.quit();
+    }
+
+    @Override
+    public void onBufferedAmountChange(long previousAmount) {
+        // The channel may be on its way to disposal, it's only read on the transfer thread.
+        if (waitingForDrain && drainPosted.compareAndSet(false, true)) {
+            executor.execute(drainedRunnable);
+        }
+    }
+
+    @Override
+    public void onStateChange() {
+        executor.execute(this::startNext);
+    }
+
+    @Override
+    public void onMessage(DataChannel.Buffer buffer) {
+        ByteBuffer data = buffer.data;
+        if (!buffer.binary) {
+            return;
+        }
+        switch (FileTransferCodec.type(data)) {
+            case FileTransferCodec.TYPE_OFFER: {
+                final int id = FileTransferCodec.transferId(data);
+                final long size = FileTransferCodec.size(data);
+                final int crc = FileTransferCodec.crc(data);
+                final String name = FileTransferCodec.name(data);
+                executor.execute(() -> onOffer(id, size, crc, name));
+                break;
+            }
+            case FileTransferCodec.TYPE_CHUNK: {
+                final int id = FileTransferCodec.transferId(data);
+                final long offset = FileTransferCodec.offset(data);
+                final byte[] payload = FileTransferCodec.payload(data);
+                executor.execute(() -> onChunk(id, offset, payload));
+                break;
+            }
+            case FileTransferCodec.TYPE_ACCEPT: {
+                final int id = FileTransferCodec.transferId(data);
+                final long offset = FileTransferCodec.offset(data);
+                executor.execute(() -> onAccept(id, offset));
+                break;
+            }
+            case FileTransferCodec.TYPE_DONE: {
+                final int id = FileTransferCodec.transferId(data);
+                final byte status = FileTransferCodec.status(data);
+                executor.execute(() -> onDone(id, status));
+                break;
+            }
+            default:
+                Log.w(TAG, "Unknown transfer message, " + data.remaining() + " bytes");
+                break;
+        }
+    }
+
+    private boolean isOpen() {
+        return channel != null && channel.state() == DataChannel.State.OPEN;
+    }
+
+    private void onDrained() {
+        drainPosted.set(false);
+        if (waitingForDrain && channel != null && channel.bufferedAmount() <= LOW_WATER) {
+            pump();
+        }
+    }
+
+    private void onChannelChanged() {
+        // The other side forgets its transfers with the channel, both restart from an offer.
+        if (current != null) {
+            closeQuietly(current.in);
+            current.in = null;
+            current = null;
+        }
+        for (Incoming transfer : incoming.values()) {
+            closeQuietly(transfer.out);
+        }
+        incoming.clear();
+        waitingForDrain = false;
+        startNext();
+    }
+
+    private void startNext() {
+        if (current != null || outgoing.isEmpty() || !isOpen()) {
+            return;
+        }
+        Outgoing transfer = outgoing.peek();
+        if (transfer.size < 0) {
+            try {
+                transfer.size = transfer.file.length();
+                transfer.crc = crc(transfer.file, transfer.size);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't read " + transfer.file, e);
+                outgoing.poll();
+                notifyFailed(transfer.file.getName(), e.getMessage());
+                startNext();
+                return;
+            }
+        }
+        transfer.id = nextTransferId++;
+        transfer.accepted = false;
+        current = transfer;
+        channel.send(new DataChannel.Buffer(
+                FileTransferCodec.encodeOffer(transfer.id, transfer.size, transfer.crc, transfer.file.getName()), true));
+        Log.d(TAG, "Offering " + transfer.file.getName() + " " + transfer.size + " bytes as #" + transfer.id);
+    }
+
+    private void onAccept(int id, long offset) {
+        if (current == null || current.id != id || current.accepted) {
+            return;
+        }
+        try {
+            current.in = new FileInputStream(current.file).getChannel();
+        } catch (IOException e) {
+            failCurrent(e.getMessage());
+            return;
+        }
+        current.accepted = true;
+        current.offset = Math.max(0, Math.min(offset, current.size));
+        current.lastProgress = current.offset;
+        if (current.offset > 0) {
+            Log.d(TAG, "Resuming " + current.file.getName() + " at " + current.offset);
+        }
+        pump();
+    }
+
+    /**
+     * Sends chunks until the channel holds {@link #HIGH_WATER}, the rest when it drains.
+     */
+    private void pump() {
+        waitingForDrain = false;
+        Outgoing transfer = current;
+        DataChannel dataChannel = channel;
+        if (transfer == null || !transfer.accepted || transfer.in == null || dataChannel == null) {
+            return;
+        }
+        try {
+            while (transfer.offset < transfer.size) {
+                if (dataChannel.state() != DataChannel.State.OPEN) {
+                    return;
+                }
+                if (dataChannel.bufferedAmount() >= HIGH_WATER) {
+                    waitingForDrain = true;
+                    // It may have drained before the flag was seen.
+                    if (dataChannel.bufferedAmount() <= LOW_WATER) {
+                        continue;
+                    }
+                    return;
+                }
+                int length = (int) Math.min(FileTransferCodec.MAX_CHUNK_PAYLOAD, transfer.size - transfer.offset);
+                chunk.clear();
+                chunk.position(FileTransferCodec.CHUNK_HEADER_SIZE);
+                chunk.limit(FileTransferCodec.CHUNK_HEADER_SIZE + length);
+                while (chunk.hasRemaining()) {
+                    if (transfer.in.read(chunk, transfer.offset + chunk.position() - FileTransferCodec.CHUNK_HEADER_SIZE) < 0) {
+                        throw new IOException(transfer.file.getName() + " shrunk while sending");
+                    }
+                }
+                FileTransferCodec.encodeChunkHeader(chunk, transfer.id, transfer.offset, length);
+                if (!dataChannel.send(chunkMessage)) {
+                    // Send buffer full or closing, retried on the next drain or channel.
+                    waitingForDrain = true;
+                    return;
+                }
+                transfer.offset += length;
+                if (transfer.offset - transfer.lastProgress >= PROGRESS_STEP || transfer.offset == transfer.size) {
+                    transfer.lastProgress = transfer.offset;
+                    notifyProgress(transfer.file.getName(), transfer.offset, transfer.size, false);
+                }
+            }
+            // All sent, DONE tells if it arrived right.
+            closeQuietly(transfer.in);
+            transfer.in = null;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't send " + transfer.file, e);
+            failCurrent(e.getMessage());
+        }
+    }
+
+    private void onDone(int id, byte status) {
+        if (current == null || current.id != id) {
+            return;
+        }
+        Outgoing transfer = current;
+        closeQuietly(transfer.in);
+        current = null;
+        outgoing.remove(transfer);
+        if (status == FileTransferCodec.STATUS_OK) {
+            Log.d(TAG, "Sent " + transfer.file.getName());
+            FileTransferListener l = listener;
+            if (l != null) {
+                l.onSent(transfer.file);
+            }
+        } else if (status == FileTransferCodec.STATUS_REJECTED) {
+            notifyFailed(transfer.file.getName(), "Rejected by receiver");
+        } else {
+            notifyFailed(transfer.file.getName(), "Receiver CRC mismatch");
+        }
+        startNext();
+    }
+
+    private void failCurrent(String reason) {
+        Outgoing transfer = current;
+        closeQuietly(transfer.in);
+        current = null;
+        outgoing.remove(transfer);
+        notifyFailed(transfer.file.getName(), reason);
+        startNext();
+    }
+
+    private void onOffer(int id, long size, int crc, String offeredName) {
+        // Only the last path element, never outside the directory.
+        String name = new File(offeredName).getName();
+        if (name.isEmpty() || size < 0 || size > maxSize) {
+            Log.w(TAG, "Rejecting transfer #" + id + " of " + offeredName + ", " + size + " bytes");
+            sendControl(FileTransferCodec.encodeDone(id, FileTransferCodec.STATUS_REJECTED));
+            return;
+        }
+        Incoming transfer = new Incoming();
+        transfer.name = name;
+        transfer.size = size;
+        transfer.crc = crc;
+        transfer.partFile = new File(directory, name + "." + size + "-" + Integer.toHexString(crc) + ".part");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            long existing = Math.min(transfer.partFile.length(), size);
+            transfer.out = new RandomAccessFile(transfer.partFile, "rw");
+            transfer.out.setLength(existing);
+            if (existing > 0) {
+                updateChecksum(transfer.checksum, transfer.partFile, existing);
+                Log.d(TAG, "Resuming " + name + " at " + existing);
+            }
+            transfer.out.seek(existing);
+            transfer.offset = existing;
+            transfer.lastProgress = existing;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't receive " + name, e);
+            closeQuietly(transfer.out);
+            notifyFailed(name, e.getMessage());
+            return;
+        }
+        Incoming previous = incoming.put(id, transfer);
+        if (previous != null) {
+            closeQuietly(previous.out);
+        }
+        sendControl(FileTransferCodec.encodeAccept(id, transfer.offset));
+        if (transfer.offset == size) {
+            finishIncoming(id, transfer);
+        }
+    }
+
+    private void onChunk(int id, long offset, byte[] payload) {
+        Incoming transfer = incoming.get(id);
+        if (transfer == null || offset != transfer.offset || offset + payload.length > transfer.size) {
+            Log.w(TAG, "Dropping chunk #" + id + " at " + offset);
+            return;
+        }
+        try {
+            transfer.out.write(payload);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write " + transfer.name, e);
+            incoming.remove(id);
+            closeQuietly(transfer.out);
+            notifyFailed(transfer.name, e.getMessage());
+            return;
+        }
+        transfer.checksum.update(payload, 0, payload.length);
+        transfer.offset += payload.length;
+        if (transfer.offset - transfer.lastProgress >= PROGRESS_STEP || transfer.offset == transfer.size) {
+            transfer.lastProgress = transfer.offset;
+            notifyProgress(transfer.name, transfer.offset, transfer.size, true);
+        }
+        if (transfer.offset == transfer.size) {
+            finishIncoming(id, transfer);
+        }
+    }
+
+    private void finishIncoming(int id, Incoming transfer) {
+        incoming.remove(id);
+        closeQuietly(transfer.out);
+        if ((int) transfer.checksum.getValue() != transfer.crc) {
+            Log.e(TAG, "CRC mismatch on " + transfer.name);
+            transfer.partFile.delete();
+            sendControl(FileTransferCodec.encodeDone(id, FileTransferCodec.STATUS_CRC_MISMATCH));
+            notifyFailed(transfer.name, "CRC mismatch");
+            return;
+        }
+        File file = unusedFile(transfer.name);
+        if (!transfer.partFile.renameTo(file)) {
+            Log.e(TAG, "Can't rename " + transfer.partFile);
+            file = transfer.partFile;
+        }
+        sendControl(FileTransferCodec.encodeDone(id, FileTransferCodec.STATUS_OK));
+        Log.d(TAG, "Received " + file);
+        FileTransferListener l = listener;
+        if (l != null) {
+            l.onReceived(file);
+        }
+    }
+
+    private void sendControl(ByteBuffer message) {
+        if (channel != null) {
+            channel.send(new DataChannel.Buffer(message, true));
+        }
+    }
+
+    private void notifyProgress(String name, long transferred, long size, boolean incoming) {
+        FileTransferListener l = listener;
+        if (l != null) {
+            l.onProgress(name, transferred, size, incoming);
+        }
+    }
+
+    private void notifyFailed(String name, String reason) {
+        FileTransferListener l = listener;
+        if (l != null) {
+            l.onFailed(name, reason);
+        }
+    }
+
+    /**
+     * The name in the directory, or "name (n).ext" with the first n not taken, files already there
+     * are never replaced.
+     */
+    private File unusedFile(String name) {
+        File file = new File(directory, name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int n = 1; file.exists(); n++) {
+            file = new File(directory, base + " (" + n + ")" + extension);
+        }
+        return file;
+    }
+
+    private static int crc(File file, long size) throws IOException {
+        CRC32 checksum = new CRC32();
+        updateChecksum(checksum, file, size);
+        return (int) checksum.getValue();
+    }
+
+    private static void updateChecksum(CRC32 checksum, File file, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            long left = length;
+            while (left > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (read < 0) {
+                    throw new IOException(file + " shorter than " + length);
+                }
+                checksum.update(buffer, 0, read);
+                left -= read;
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Close failed", e);
+        }
+    }
+
+}
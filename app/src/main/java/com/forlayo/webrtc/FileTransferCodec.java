@@ -0,0 +1,184 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary messages of the "transfer" DataChannel, big endian, all starting with type and transfer id:
+ * <pre>
+ * OFFER   sender to receiver, a file is coming
+ * 0       type        byte, {@link #TYPE_OFFER}
+ * 1..4    transfer id int
+ * 5..12   size        long, bytes
+ * 13..16  crc         int, CRC32 of the whole file
+ * 17..18  name length short, unsigned
+ * 19..    name        UTF-8
+ *
+ * ACCEPT  receiver to sender, send from this offset on (what a previous attempt left)
+ * 0       type        byte, {@link #TYPE_ACCEPT}
+ * 1..4    transfer id int
+ * 5..12   offset      long
+ *
+ * CHUNK   sender to receiver, up to {@link #MAX_CHUNK_PAYLOAD} bytes of the file
+ * 0       type        byte, {@link #TYPE_CHUNK}
+ * 1..4    transfer id int
+ * 5..12   offset      long, of the first payload byte in the file
+ * 13..    payload
+ *
+ * DONE    receiver to sender, file complete and checked, or not, or the offer refused
+ * 0       type        byte, {@link #TYPE_DONE}
+ * 1..4    transfer id int
+ * 5       status      byte, {@link #STATUS_OK}, {@link #STATUS_CRC_MISMATCH} or {@link #STATUS_REJECTED}
+ * </pre>
+ * Chunks fill a whole {@link #MAX_MESSAGE_SIZE} message, the size every SCTP implementation takes.
+ */
+final class FileTransferCodec {
+
+    static final byte TYPE_OFFER = 0x03;
+    static final byte TYPE_ACCEPT = 0x04;
+    static final byte TYPE_CHUNK = 0x05;
+    static final byte TYPE_DONE = 0x06;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_CRC_MISMATCH = 1;
+    static final byte STATUS_REJECTED = 2;
+
+    static final int MAX_MESSAGE_SIZE = 16 * 1024;
+    static final int CHUNK_HEADER_SIZE = 13;
+    static final int MAX_CHUNK_PAYLOAD = MAX_MESSAGE_SIZE - CHUNK_HEADER_SIZE;
+    static final int MAX_NAME_LENGTH = 1024;
+
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_ID = 1;
+    private static final int OFFSET_SIZE = 5;
+    private static final int OFFSET_CRC = 13;
+    private static final int OFFSET_NAME_LENGTH = 17;
+    private static final int OFFSET_NAME = 19;
+    private static final int OFFSET_OFFSET = 5;
+    private static final int OFFSET_STATUS = 5;
+    private static final int ACCEPT_SIZE = 13;
+    private static final int DONE_SIZE = 6;
+
+    private FileTransferCodec() {
+    }
+
+    /**
+     * Creates a direct buffer sized for one chunk message, meant to be reused for every chunk.
+     */
+    static ByteBuffer allocateChunk() {
+        return ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    static ByteBuffer encodeOffer(int transferId, long size, int crc, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(OFFSET_NAME + nameBytes.length).order(ByteOrder.BIG_ENDIAN);
+        out.put(OFFSET_TYPE, TYPE_OFFER);
+        out.putInt(OFFSET_ID, transferId);
+        out.putLong(OFFSET_SIZE, size);
+        out.putInt(OFFSET_CRC, crc);
+        out.putShort(OFFSET_NAME_LENGTH, (short) nameBytes.length);
+        out.position(OFFSET_NAME);
+        out.put(nameBytes);
+        out.flip();
+        return out;
+    }
+
+    static ByteBuffer encodeAccept(int transferId, long offset) {
+        ByteBuffer out = ByteBuffer.allocateDirect(ACCEPT_SIZE).order(ByteOrder.BIG_ENDIAN);
+        out.put(OFFSET_TYPE, TYPE_ACCEPT);
+        out.putInt(OFFSET_ID, transferId);
+        out.putLong(OFFSET_OFFSET, offset);
+        return out;
+    }
+
+    static ByteBuffer encodeDone(int transferId, byte status) {
+        ByteBuffer out = ByteBuffer.allocateDirect(DONE_SIZE).order(ByteOrder.BIG_ENDIAN);
+        out.put(OFFSET_TYPE, TYPE_DONE);
+        out.putInt(OFFSET_ID, transferId);
+        out.put(OFFSET_STATUS, status);
+        return out;
+    }
+
+    /**
+     * Writes the chunk header into out, from {@link #allocateChunk()}, whose payload the caller has
+     * already put from {@link #CHUNK_HEADER_SIZE} on, and leaves it ready to be sent.
+     */
+    static void encodeChunkHeader(ByteBuffer out, int transferId, long offset, int payloadLength) {
+        out.put(OFFSET_TYPE, TYPE_CHUNK);
+        out.putInt(OFFSET_ID, transferId);
+        out.putLong(OFFSET_OFFSET, offset);
+        out.limit(CHUNK_HEADER_SIZE + payloadLength);
+        out.position(0);
+    }
+
+    /**
+     * @return the type of a well formed message, 0 otherwise.
+     */
+    static byte type(ByteBuffer in) {
+        if (in.remaining() < DONE_SIZE) {
+            return 0;
+        }
+        byte type = in.get(in.position() + OFFSET_TYPE);
+        switch (type) {
+            case TYPE_OFFER:
+                return in.remaining() >= OFFSET_NAME
+                        && in.remaining() >= OFFSET_NAME + (in.getShort(in.position() + OFFSET_NAME_LENGTH) & 0xFFFF) ? type : 0;
+            case TYPE_ACCEPT:
+                return in.remaining() >= ACCEPT_SIZE ? type : 0;
+            case TYPE_CHUNK:
+                return in.remaining() >= CHUNK_HEADER_SIZE ? type : 0;
+            case TYPE_DONE:
+                return type;
+            default:
+                return 0;
+        }
+    }
+
+    static int transferId(ByteBuffer in) {
+        return in.getInt(in.position() + OFFSET_ID);
+    }
+
+    static long size(ByteBuffer in) {
+        return in.getLong(in.position() + OFFSET_SIZE);
+    }
+
+    static int crc(ByteBuffer in) {
+        return in.getInt(in.position() + OFFSET_CRC);
+    }
+
+    static String name(ByteBuffer in) {
+        int length = in.getShort(in.position() + OFFSET_NAME_LENGTH) & 0xFFFF;
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = in.get(in.position() + OFFSET_NAME + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Offset of an ACCEPT or a CHUNK.
+     */
+    static long offset(ByteBuffer in) {
+        return in.getLong(in.position() + OFFSET_OFFSET);
+    }
+
+    static byte status(ByteBuffer in) {
+        return in.get(in.position() + OFFSET_STATUS);
+    }
+
+    /**
+     * Copies the payload of a CHUNK, the received buffer is only valid during the callback.
+     */
+    static byte[] payload(ByteBuffer in) {
+        byte[] payload = new byte[in.remaining() - CHUNK_HEADER_SIZE];
+        ByteBuffer view = in.duplicate();
+        view.position(in.position() + CHUNK_HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+}
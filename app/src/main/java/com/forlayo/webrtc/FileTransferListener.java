@@ -0,0 +1,24 @@
+package com.forlayo.webrtc;
+
+import java.io.File;
+
+/**
+ * Progress and outcome of files sent with {@link IWebRTCCall#sendFile(File)} and of files received.
+ * Called on the transfer thread.
+ */
+public interface FileTransferListener {
+
+    /**
+     * @param incoming true for a file being received, false for one being sent.
+     */
+    void onProgress(String name, long transferred, long size, boolean incoming);
+
+    void onSent(File file);
+
+    /**
+     * @param file complete and checked, in the transfers directory.
+     */
+    void onReceived(File file);
+
+    void onFailed(String name, String reason);
+}
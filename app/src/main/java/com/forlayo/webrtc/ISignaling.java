@@ -1,5 +1,24 @@
 package com.forlayo.webrtc;
 
 public interface ISignaling {
+
+    /**
+     * Outcome of a message handed to {@link #toSend(SdpSignaling, SendCallback)}. Called on the
+     * signaling thread, never on the caller's.
+     */
+    interface SendCallback {
+        void onSent(SdpSignaling cmd);
+
+        void onDropped(SdpSignaling cmd, String reason);
+    }
+
     void toSend(SdpSignaling cmd);
+
+    void toSend(SdpSignaling cmd, SendCallback callback);
+
+    /**
+     * @return true if the other party reads "candidates" batches, otherwise candidates are sent one
+     * by one whatever is given to {@link #toSend(SdpSignaling)}.
+     */
+    boolean acceptsCandidates();
 }
@@ -2,14 +2,45 @@ package com.forlayo.webrtc;
 
 import android.content.Intent;
 
+import java.io.File;
+import java.util.List;
+
 public interface IWebRTCCall {
     void setScreenCaptureProjectionData(Intent mediaProjectionData);
 
     void declineSupportCall();
 
+    void setScreenCaptureProfile(CaptureProfile profile);
+
+    void setCameraCaptureProfile(CaptureProfile profile);
+
+    void setScreenLayers(List<EncodingLayer> layers);
+
+    void setCameraLayers(List<EncodingLayer> layers);
+
+    void selectRemoteLayer(String trackId, int layer);
+
+    void sendFile(File file);
+
+    void setFileTransferListener(FileTransferListener listener);
+
+    void setRemoteInputListener(RemoteInputListener listener);
+
+    List<TrackStatsSample> getStatsSnapshot(String trackId);
+
+    void setIceRestartPolicy(IceRestartPolicy policy);
+
+    void setScreenShareEnabled(boolean enabled);
+
+    void setCameraEnabled(boolean enabled);
+
+    void switchCamera();
+
     void call();
 
     void hang();
 
+    void release();
+
     void onSignalingReceived(SdpSignaling signalingCmd);
 }
@@ -0,0 +1,93 @@
+package com.forlayo.webrtc;
+
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups local ICE candidates into "candidates" signaling messages instead of one message each.
+ * <p>
+ * A batch is sent {@link #FLUSH_WINDOW_MS} after its first candidate, when it reaches
+ * {@link #MAX_BATCH_SIZE} or when {@link #flush()} is called on gathering complete. A batch holding a
+ * single candidate goes as a plain "candidate" message, both carry the session id of the call so queued
+ * ones can be told apart from a newer call's. Candidates go right away, one by one, while the other
+ * party doesn't read batches. Call thread only.
+ */
+class IceCandidateBatcher {
+
+    private static final String TAG = IceCandidateBatcher.class.getCanonicalName();
+
+    static final long FLUSH_WINDOW_MS = 40;
+    static final int MAX_BATCH_SIZE = 16;
+
+    private final CallExecutor callExecutor;
+    private final ISignaling signaling;
+    private final Runnable flushRunnable = this::flush;
+    private List<SdpSignaling.Candidate> pending = new ArrayList<>();
+    private String sessionId;
+
+    IceCandidateBatcher(CallExecutor callExecutor, ISignaling signaling) {
+        this.callExecutor = callExecutor;
+        this.signaling = signaling;
+    }
+
+    void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    void add(IceCandidate iceCandidate) {
+        SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+        candidate.setSdpMid(iceCandidate.sdpMid);
+        candidate.setSdpMLineIndex(iceCandidate.sdpMLineIndex);
+        candidate.setSdp(iceCandidate.sdp);
+        pending.add(candidate);
+
+        if (pending.size() >= MAX_BATCH_SIZE || signaling == null || !signaling.acceptsCandidates()) {
+            flush();
+        } else if (pending.size() == 1) {
+            callExecutor.schedule(flushRunnable, FLUSH_WINDOW_MS);
+        }
+    }
+
+    void flush() {
+        callExecutor.cancel(flushRunnable);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        SdpSignaling signalingCmd = new SdpSignaling();
+        signalingCmd.setSessionId(sessionId);
+        if (pending.size() == 1) {
+            SdpSignaling.Candidate candidate = pending.get(0);
+            signalingCmd.setType("candidate");
+            signalingCmd.setSdpMid(candidate.getSdpMid());
+            signalingCmd.setSdpMLineIndex(candidate.getSdpMLineIndex());
+            signalingCmd.setSdp(candidate.getSdp());
+            pending.clear();
+        } else {
+            signalingCmd.setType("candidates");
+            signalingCmd.setCandidates(pending);
+            pending = new ArrayList<>();
+        }
+
+        if (signaling == null) {
+            Log.e(TAG, "Signaling is null! can't send CANDIDATES back!");
+            return;
+        }
+
+        // Ask to send it back
+        signaling.toSend(signalingCmd);
+    }
+
+    /**
+     * Drops pending candidates without sending them, for when the call is closed.
+     */
+    void clear() {
+        callExecutor.cancel(flushRunnable);
+        pending.clear();
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.forlayo.webrtc;
+
+/**
+ * How a call tries to get its connection back when ICE goes DISCONNECTED or FAILED, before giving up.
+ * <p>
+ * DISCONNECTED often fixes itself (a lost packet burst, a handover), so the first ICE restart waits a
+ * grace period; FAILED restarts at once. Following restarts back off exponentially up to a maximum, and
+ * the call is closed once the deadline since losing the connection has passed.
+ */
+public final class IceRestartPolicy {
+
+    public static final IceRestartPolicy DEFAULT = new IceRestartPolicy(2000, 1000, 8000, 30000);
+
+    private final long gracePeriodMs;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long deadlineMs;
+
+    /**
+     * @param gracePeriodMs    wait from DISCONNECTED to the first restart.
+     * @param initialBackoffMs wait after the first restart, doubled after every following one.
+     * @param maxBackoffMs     longest wait between restarts.
+     * @param deadlineMs       time from losing the connection to closing the call.
+     */
+    public IceRestartPolicy(long gracePeriodMs, long initialBackoffMs, long maxBackoffMs, long deadlineMs) {
+        if (gracePeriodMs < 0 || initialBackoffMs <= 0 || maxBackoffMs < initialBackoffMs || deadlineMs <= 0) {
+            throw new IllegalArgumentException("Invalid ICE restart policy " + gracePeriodMs + "/"
+                    + initialBackoffMs + "/" + maxBackoffMs + "/" + deadlineMs);
+        }
+        this.gracePeriodMs = gracePeriodMs;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public long getGracePeriodMs() {
+        return gracePeriodMs;
+    }
+
+    public long getInitialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    /**
+     * Wait after the given number of restarts already done (1 for the wait after the first one).
+     */
+    long backoffMs(int restarts) {
+        if (restarts <= 0) {
+            return gracePeriodMs;
+        }
+        // Capped shift, the result is clamped to the maximum anyway.
+        long backoff = initialBackoffMs << Math.min(restarts - 1, 30);
+        return backoff <= 0 ? maxBackoffMs : Math.min(backoff, maxBackoffMs);
+    }
+
+    /**
+     * Wait before the next step, never going past the deadline.
+     */
+    long nextDelayMs(int restarts, long elapsedMs) {
+        return Math.max(0, Math.min(backoffMs(restarts), deadlineMs - elapsedMs));
+    }
+
+    boolean isExpired(long elapsedMs) {
+        return elapsedMs >= deadlineMs;
+    }
+
+    @Override
+    public String toString() {
+        return "grace " + gracePeriodMs + "ms, backoff " + initialBackoffMs + ".." + maxBackoffMs
+                + "ms, deadline " + deadlineMs + "ms";
+    }
+
+}
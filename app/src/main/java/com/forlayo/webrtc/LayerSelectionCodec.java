@@ -0,0 +1,64 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary message a receiver sends over the "backcontrol" DataChannel to pick the {@link EncodingLayer}
+ * of one of the tracks it receives.
+ * <pre>
+ * 0       type        byte, always {@link #TYPE_LAYER_SELECTION}
+ * 1       layer       byte, unsigned index in the sender ladder, lowest quality is 0
+ * 2       id length   byte, unsigned
+ * 3..     track id    ASCII
+ * </pre>
+ */
+final class LayerSelectionCodec {
+
+    static final byte TYPE_LAYER_SELECTION = 0x02;
+    static final int MAX_TRACK_ID_LENGTH = 64;
+
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_LAYER = 1;
+    private static final int OFFSET_ID_LENGTH = 2;
+    private static final int OFFSET_ID = 3;
+
+    private LayerSelectionCodec() {
+    }
+
+    static ByteBuffer encode(String trackId, int layer) {
+        byte[] id = trackId.getBytes(StandardCharsets.US_ASCII);
+        if (id.length > MAX_TRACK_ID_LENGTH || layer < 0 || layer > 255) {
+            throw new IllegalArgumentException("Can't encode layer " + layer + " of " + trackId);
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(OFFSET_ID + id.length).order(ByteOrder.BIG_ENDIAN);
+        out.put(OFFSET_TYPE, TYPE_LAYER_SELECTION);
+        out.put(OFFSET_LAYER, (byte) layer);
+        out.put(OFFSET_ID_LENGTH, (byte) id.length);
+        out.position(OFFSET_ID);
+        out.put(id);
+        out.flip();
+        return out;
+    }
+
+    static boolean isLayerSelection(ByteBuffer in) {
+        return in.remaining() >= OFFSET_ID
+                && in.get(in.position() + OFFSET_TYPE) == TYPE_LAYER_SELECTION
+                && in.remaining() >= OFFSET_ID + (in.get(in.position() + OFFSET_ID_LENGTH) & 0xFF);
+    }
+
+    static int layer(ByteBuffer in) {
+        return in.get(in.position() + OFFSET_LAYER) & 0xFF;
+    }
+
+    static String trackId(ByteBuffer in) {
+        int length = in.get(in.position() + OFFSET_ID_LENGTH) & 0xFF;
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = in.get(in.position() + OFFSET_ID + i);
+        }
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+}
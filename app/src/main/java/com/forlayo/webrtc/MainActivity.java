@@ -12,23 +12,23 @@ import android.util.Log;
 import android.widget.Button;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
-
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.webrtc.SurfaceViewRenderer;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 
 import io.socket.client.IO;
 import io.socket.client.Socket;
 import io.socket.emitter.Emitter;
 
-public class MainActivity extends AppCompatActivity implements ISignaling {
+public class MainActivity extends AppCompatActivity implements SignalingOutbox.Transport {
 
     private static final String TAG = MainActivity.class.getCanonicalName();
 
     private static final int CAPTURE_PERMISSION_REQUEST_CODE = 2;
+    private static final long SIGNALING_RECONNECTION_DELAY_MS = 250;
+    private static final long SIGNALING_RECONNECTION_DELAY_MAX_MS = 2000;
     IWebRTCCall webRTCCall;
     SurfaceViewRenderer remoteCamera;
     SurfaceViewRenderer localCamera;
@@ -37,21 +37,41 @@ public class MainActivity extends AppCompatActivity implements ISignaling {
     Button btnClose;
     private Intent mediaProjectionPermissionResultData;
     private Socket mSocket;
-    private Gson gson;
+    // Keeps socket writes off the WebRTC threads and holds messages while disconnected.
+    private final CallExecutor signalingExecutor = new CallExecutor("SignalingOutbox");
+    private final PeerCapabilities peerCapabilities = new PeerCapabilities();
+    private final SignalingCompression signalingCompression = new SignalingCompression(this);
+    private final SignalingSession signalingSession = new SignalingSession(signalingExecutor, signalingCompression);
+    private final SignalingOutbox signalingOutbox = new SignalingOutbox(signalingExecutor, signalingSession, peerCapabilities);
+    // Runs on the socket event thread, parsing there keeps it off the UI.
     private Emitter.Listener onNewMessage = new Emitter.Listener() {
         @Override
         public void call(Object... args) {
-            runOnUiThread(() -> {
-                JSONObject data = (JSONObject) args[0];
-                Log.d(TAG, "onNewMessage() RCV :: " + data.toString());
-                webRTCCall.onSignalingReceived(gson.fromJson(data.toString(), SdpSignaling.class));
-            });
+            try {
+                SdpSignaling received = SdpSignalingCodec.fromPayload(args[0]);
+                peerCapabilities.onReceived(received);
+                SdpSignaling signalingCmd = signalingSession.onReceived(signalingCompression.onReceived(received));
+                if (signalingCmd == null) {
+                    return;
+                }
+                Log.d(TAG, "onNewMessage() RCV :: " + signalingCmd.getType());
+                webRTCCall.onSignalingReceived(signalingCmd);
+
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "onNewMessage() exception parsing message");
+                e.printStackTrace();
+            }
         }
     };
-    private Emitter.Listener onConnect = args -> runOnUiThread(() -> {
-        Log.i(TAG, "onConnect() ");
-        Toast.makeText(getApplicationContext(), "Connected!", Toast.LENGTH_LONG).show();
-    });
+    private Emitter.Listener onConnect = args -> {
+        // Replay of what the reconnect lost goes before what was queued meanwhile.
+        signalingSession.onConnected();
+        signalingOutbox.onConnected();
+        runOnUiThread(() -> {
+            Log.i(TAG, "onConnect() ");
+            Toast.makeText(getApplicationContext(), "Connected!", Toast.LENGTH_LONG).show();
+        });
+    };
     private Emitter.Listener onDisconnect = args -> runOnUiThread(() -> {
         Log.i(TAG, "onDisconnect() ");
         Toast.makeText(getApplicationContext(), "Disconnected!", Toast.LENGTH_LONG).show();
@@ -67,13 +87,11 @@ public class MainActivity extends AppCompatActivity implements ISignaling {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        gson = new Gson();
-
         remoteCamera = findViewById(R.id.svr_remote_camera);
         localCamera = findViewById(R.id.svr_local_camera);
         remoteScreen = findViewById(R.id.svr_remote_screen);
 
-        webRTCCall = new WebRTCCall(this, this, remoteCamera, remoteScreen, localCamera);
+        webRTCCall = new WebRTCCall(this, signalingOutbox, remoteCamera, remoteScreen, localCamera);
 
         btnCall = findViewById(R.id.btn_call);
         btnCall.setOnClickListener(v -> {
@@ -92,7 +110,11 @@ public class MainActivity extends AppCompatActivity implements ISignaling {
         btnClose.setOnClickListener(v -> webRTCCall.hang());
 
         try {
-            mSocket = IO.socket("https://rtcsignaling-forlayo.c9users.io:8080");
+            IO.Options options = new IO.Options();
+            // A blip should cost a quick reconnect and resume, not seconds of backoff.
+            options.reconnectionDelay = SIGNALING_RECONNECTION_DELAY_MS;
+            options.reconnectionDelayMax = SIGNALING_RECONNECTION_DELAY_MAX_MS;
+            mSocket = IO.socket(BuildConfig.SIGNALING_URL, options);
             mSocket.on(Socket.EVENT_CONNECT, onConnect);
             mSocket.on(Socket.EVENT_DISCONNECT, onDisconnect);
             mSocket.on(Socket.EVENT_CONNECT_ERROR, onConnectError);
@@ -107,6 +129,18 @@ public class MainActivity extends AppCompatActivity implements ISignaling {
         startScreenCapture();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mSocket != null) {
+            mSocket.off();
+            mSocket.disconnect();
+        }
+        webRTCCall.release();
+        signalingOutbox.clear();
+        signalingExecutor.quit();
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     private void startScreenCapture() {
         MediaProjectionManager mediaProjectionManager =
@@ -133,16 +167,13 @@ public class MainActivity extends AppCompatActivity implements ISignaling {
     }
 
     @Override
-    public void toSend(SdpSignaling cmd) {
-        try {
-            JSONObject obj = new JSONObject(gson.toJson(cmd));
-            mSocket.emit("message", obj);
-            Log.d(TAG, "toSend() SENT :: " + obj.toString());
+    public boolean isConnected() {
+        return mSocket != null && mSocket.connected();
+    }
 
-        } catch (JSONException e) {
-            Log.e(TAG, "toSend() exception sending message");
-            e.printStackTrace();
-        }
+    @Override
+    public void emit(SdpSignaling cmd) throws JSONException {
+        mSocket.emit("message", SdpSignalingCodec.toJsonObject(cmd));
     }
 
 }
@@ -0,0 +1,106 @@
+package com.forlayo.webrtc;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.audio.AudioDeviceModule;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+/**
+ * Long lived native side of WebRTC: PeerConnectionFactory with its codec factories and audio device
+ * module, plus the root EGL context. Created on the first call and kept across calls, so setting up
+ * and closing a call only creates and disposes its PeerConnection, tracks and capturers.
+ * Call thread only.
+ */
+class MediaEngine {
+
+    private static final String TAG = MediaEngine.class.getCanonicalName();
+
+    // PeerConnectionFactory.initialize() is process wide.
+    private static boolean nativeInitialized;
+
+    private final Context appContext;
+    private EglBase rootEglBase;
+    private PeerConnectionFactory factory;
+
+    MediaEngine(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    boolean isStarted() {
+        return factory != null;
+    }
+
+    /**
+     * Creates the factory and EGL context if not already there.
+     *
+     * @return true if they were created by this call, false if already warm.
+     */
+    boolean start() {
+        if (factory != null) {
+            return false;
+        }
+        Log.d(TAG, "start()");
+
+        if (!nativeInitialized) {
+            PeerConnectionFactory.InitializationOptions initializationOptions =
+                    PeerConnectionFactory.InitializationOptions.builder(appContext)
+                            .createInitializationOptions();
+            PeerConnectionFactory.initialize(initializationOptions);
+            nativeInitialized = true;
+        }
+
+        rootEglBase = EglBase.create();
+
+        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+        DefaultVideoEncoderFactory defaultVideoEncoderFactory = new DefaultVideoEncoderFactory(
+                rootEglBase.getEglBaseContext(), true, true);
+
+        DefaultVideoDecoderFactory defaultVideoDecoderFactory = new DefaultVideoDecoderFactory(
+                rootEglBase.getEglBaseContext());
+
+        final AudioDeviceModule audioDeviceModule = JavaAudioDeviceModule.builder(appContext)
+                .setUseHardwareAcousticEchoCanceler(true)
+                .setUseHardwareNoiseSuppressor(true)
+                .createAudioDeviceModule();
+
+        factory =
+                PeerConnectionFactory.builder()
+                        .setOptions(options)
+                        .setAudioDeviceModule(audioDeviceModule)
+                        .setVideoDecoderFactory(defaultVideoDecoderFactory)
+                        .setVideoEncoderFactory(defaultVideoEncoderFactory)
+                        .createPeerConnectionFactory();
+
+        // Not sure why, but this is the way to proceed. The factory keeps its own reference.
+        audioDeviceModule.release();
+        return true;
+    }
+
+    PeerConnectionFactory getFactory() {
+        return factory;
+    }
+
+    EglBase.Context getEglBaseContext() {
+        return rootEglBase.getEglBaseContext();
+    }
+
+    /**
+     * Frees the factory and EGL context, everything created from them must be disposed before.
+     */
+    void release() {
+        if (factory == null) {
+            return;
+        }
+        Log.d(TAG, "release()");
+        factory.dispose();
+        factory = null;
+        rootEglBase.release();
+        rootEglBase = null;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.forlayo.webrtc;
+
+/**
+ * What the other party's signaling can read, from the "accept" list on every message it sends.
+ * <p>
+ * Clients older than "accept" never send it and read nothing beyond the original messages: no
+ * compressed sdp and no "candidates" batches, only one "candidate" message per candidate. Until the
+ * other party is heard from, it's taken as one of those. Any thread.
+ */
+class PeerCapabilities {
+
+    static final String CANDIDATES = "candidates";
+
+    /**
+     * Our own "accept" list.
+     */
+    static final String ACCEPT = SdpCompressionCodec.ENCODING + "," + CANDIDATES;
+
+    private volatile boolean candidates;
+
+    /**
+     * Call on every received message.
+     */
+    void onReceived(SdpSignaling cmd) {
+        candidates = isAccepted(cmd.getAccept(), CANDIDATES);
+    }
+
+    /**
+     * @return true if "candidates" batches can be sent.
+     */
+    boolean acceptsCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return true if a comma separated "accept" value lists the token.
+     */
+    static boolean isAccepted(String accept, String token) {
+        if (accept == null) {
+            return false;
+        }
+        for (String accepted : accept.split(",")) {
+            if (token.equals(accepted.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
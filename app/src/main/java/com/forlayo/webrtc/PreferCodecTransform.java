@@ -0,0 +1,54 @@
+package com.forlayo.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves a codec, with its retransmission payload types, to the front of every m-line of a kind so
+ * that it's the one negotiated when both sides support it. Sections without the codec are untouched.
+ * <p>
+ * With DefaultVideoEncoderFactory H264 is only offered when there's a hardware encoder for it, so
+ * preferring "H264" prefers hardware encoding over software VP8.
+ */
+final class PreferCodecTransform implements SdpTransform {
+
+    private final String kind;
+    private final String codecName;
+
+    PreferCodecTransform(String kind, String codecName) {
+        this.kind = kind;
+        this.codecName = codecName;
+    }
+
+    @Override
+    public void apply(Sdp sdp) {
+        for (Sdp.MediaSection section : sdp.getMediaSections()) {
+            if (!section.getKind().equals(kind)) {
+                continue;
+            }
+            List<String> preferred = new ArrayList<>();
+            for (String payloadType : section.findPayloadTypes(codecName)) {
+                preferred.add(payloadType);
+                preferred.addAll(section.findRtxPayloadTypes(payloadType));
+            }
+            if (preferred.isEmpty()) {
+                continue;
+            }
+
+            List<String> payloadTypes = section.getPayloadTypes();
+            List<String> reordered = new ArrayList<>(payloadTypes.size());
+            for (String payloadType : preferred) {
+                if (payloadTypes.contains(payloadType)) {
+                    reordered.add(payloadType);
+                }
+            }
+            for (String payloadType : payloadTypes) {
+                if (!reordered.contains(payloadType)) {
+                    reordered.add(payloadType);
+                }
+            }
+            section.setPayloadTypes(reordered);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.forlayo.webrtc;
+
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Forwards the frames of a track to any number of targets (renderer, recorder, analyzer...) that can
+ * be changed from any thread while frames are flowing.
+ * <p>
+ * Targets are kept in a copy on write array, so {@link #onFrame(VideoFrame)} only does a volatile read
+ * and never locks. Every target gets the same frame, no copies: the proxy holds one extra reference
+ * while handing it out, and a target keeping the frame past its onFrame() must retain() it and release()
+ * it when done, as with any VideoSink. A target removed while a frame is being delivered may still get
+ * that frame.
+ */
+class ProxyVideoSink implements VideoSink {
+
+    interface FirstFrameListener {
+        /**
+         * Called once from the frame delivery thread, with the {@link System#nanoTime()} of the frame.
+         */
+        void onFirstFrame(long frameNanos);
+    }
+
+    private static final VideoSink[] NO_TARGETS = new VideoSink[0];
+
+    private volatile VideoSink[] targets = NO_TARGETS;
+    private final AtomicReference<FirstFrameListener> firstFrameListener = new AtomicReference<>();
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        final VideoSink[] current = targets;
+        if (current.length == 0) {
+            return;
+        }
+        if (firstFrameListener.get() != null) {
+            FirstFrameListener listener = firstFrameListener.getAndSet(null);
+            if (listener != null) {
+                listener.onFirstFrame(System.nanoTime());
+            }
+        }
+
+        frame.retain();
+        try {
+            for (VideoSink target : current) {
+                target.onFrame(frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Replaces all targets with the given one, or removes them all for null.
+     */
+    synchronized void setTarget(VideoSink target) {
+        targets = target == null ? NO_TARGETS : new VideoSink[]{target};
+    }
+
+    synchronized void addTarget(VideoSink target) {
+        for (VideoSink existing : targets) {
+            if (existing == target) {
+                return;
+            }
+        }
+        VideoSink[] updated = Arrays.copyOf(targets, targets.length + 1);
+        updated[targets.length] = target;
+        targets = updated;
+    }
+
+    synchronized void removeTarget(VideoSink target) {
+        VideoSink[] current = targets;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == target) {
+                VideoSink[] updated = new VideoSink[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                targets = updated.length == 0 ? NO_TARGETS : updated;
+                return;
+            }
+        }
+    }
+
+    int getTargetCount() {
+        return targets.length;
+    }
+
+    /**
+     * Listener for the next frame delivered to at least one target, null to cancel it.
+     */
+    void setFirstFrameListener(FirstFrameListener listener) {
+        firstFrameListener.set(listener);
+    }
+
+}
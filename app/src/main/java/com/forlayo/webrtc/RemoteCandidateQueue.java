@@ -0,0 +1,59 @@
+package com.forlayo.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds remote ICE candidates received before the remote description is applied, adding them to
+ * the PeerConnection before that fails. Call thread only.
+ */
+final class RemoteCandidateQueue<T> {
+
+    interface Sink<T> {
+        void add(T candidate);
+    }
+
+    private List<T> queued;
+
+    /**
+     * Candidates added from now on are held until {@link #drainTo(Sink)}.
+     */
+    void startQueuing() {
+        if (queued == null) {
+            queued = new ArrayList<>();
+        }
+    }
+
+    boolean isQueuing() {
+        return queued != null;
+    }
+
+    void add(T candidate) {
+        queued.add(candidate);
+    }
+
+    /**
+     * Hands every held candidate to the sink, in arrival order, and stops queuing.
+     *
+     * @return number of candidates drained
+     */
+    int drainTo(Sink<T> sink) {
+        if (queued == null) {
+            return 0;
+        }
+        List<T> toDrain = queued;
+        queued = null;
+        for (int i = 0; i < toDrain.size(); i++) {
+            sink.add(toDrain.get(i));
+        }
+        return toDrain.size();
+    }
+
+    /**
+     * Drops held candidates and stops queuing.
+     */
+    void clear() {
+        queued = null;
+    }
+
+}
@@ -0,0 +1,398 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Receiver side of {@link RemoteTouchSender}: decodes touch messages into a bounded queue and hands
+ * them to a {@link RemoteInputListener} on the UI thread, paced as the sender made them.
+ * <p>
+ * A move replaces the move of the same pointer still waiting in the queue, and moves not newer than
+ * the last event of their pointer are dropped as stale, which is what the unordered pointer channel
+ * delivers late. Other actions are never merged; when the queue is full the oldest move goes first.
+ * A move sent after an action not received yet, its DOWN still on backcontrol, is held until that
+ * action arrives, only the latest per pointer.
+ * <p>
+ * Sender and receiver uptimes aren't related, so event times are mapped with the smallest offset
+ * seen in the last {@link #OFFSET_WINDOW_MS} or so, the fastest delivery. Events are due at that
+ * mapped time plus a playout delay of twice the arrival jitter, at most {@link #MAX_PLAYOUT_DELAY_MS},
+ * late ones go right away. Latency is recorded from that fastest delivery to the listener call, the
+ * network one way delay is added by {@link #toRecord(double)}.
+ * <p>
+ * Messages come on the WebRTC signaling thread, the listener is called on the UI thread.
+ */
+class RemoteInputDispatcher implements DataChannelMessageDispatcher.BinaryHandler {
+
+    static final int DEFAULT_CAPACITY = 64;
+    static final long OFFSET_WINDOW_MS = 10_000;
+    // One frame, smoothing must not cost more than the coalescing on the sender.
+    static final long MAX_PLAYOUT_DELAY_MS = 16;
+    static final int LATENCY_SAMPLES = 2048;
+
+    private static final int ACTION_MOVE = DataChannelRoute.ACTION_MOVE;
+    private static final long OFFSET_WINDOW_US = OFFSET_WINDOW_MS * 1000;
+    private static final long MAX_PLAYOUT_DELAY_US = MAX_PLAYOUT_DELAY_MS * 1000;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final CallExecutor executor;
+    private final RemoteInputListener listener;
+    private final Runnable drainRunnable = this::drain;
+
+    // UI thread only.
+    private final Event[] batch;
+
+    // Guarded by this.
+    private final Event[] queue;
+    private int head;
+    private int size;
+    private boolean drainScheduled;
+    private final int[] lastSequence = new int[256];
+    private final boolean[] hasSequence = new boolean[256];
+    private int lastEventSequence;
+    private boolean hasEventSequence;
+    // Allocated on first use and kept.
+    private final Event[] held = new Event[256];
+    private final boolean[] hasHeld = new boolean[256];
+    private final int[] heldSequence = new int[256];
+    private final int[] heldAfter = new int[256];
+    private int heldCount;
+    private boolean hasTransit;
+    private long lastTransitUs;
+    private double jitterUs;
+    private long windowStartUs;
+    private long windowMinUs;
+    private long previousWindowMinUs;
+    private final long[] latencyUs = new long[LATENCY_SAMPLES];
+    private final long[] queueUs = new long[LATENCY_SAMPLES];
+    private int latencyNext;
+    private int latencyCount;
+    private long received;
+    private long dispatched;
+    private long superseded;
+    private long stale;
+    private long overflow;
+
+    RemoteInputDispatcher(CallExecutor executor, RemoteInputListener listener) {
+        this(executor, listener, DEFAULT_CAPACITY);
+    }
+
+    RemoteInputDispatcher(CallExecutor executor, RemoteInputListener listener, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.executor = executor;
+        this.listener = listener;
+        this.queue = new Event[capacity];
+        this.batch = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            queue[i] = new Event();
+            batch[i] = new Event();
+        }
+        reset();
+    }
+
+    @Override
+    public void onBinaryMessage(ByteBuffer data) {
+        if (!TouchEventCodec.isTouch(data)) {
+            return;
+        }
+        long receivedUs = nowUs();
+        int action = TouchEventCodec.action(data);
+        int pointerId = TouchEventCodec.pointerId(data) & 0xFF;
+        int sequence = TouchEventCodec.sequence(data);
+        float x = TouchEventCodec.x(data);
+        float y = TouchEventCodec.y(data);
+        long eventUs = TouchEventCodec.eventTime(data) * 1000;
+        int after = TouchEventCodec.after(data);
+
+        synchronized (this) {
+            received++;
+            long fastestUs = eventUs + updateOffset(receivedUs - eventUs, receivedUs);
+            long dueUs = fastestUs + Math.min(MAX_PLAYOUT_DELAY_US, (long) (2 * jitterUs));
+
+            if (action == ACTION_MOVE) {
+                // Sequences wrap, compared by difference.
+                if (hasSequence[pointerId] && sequence - lastSequence[pointerId] <= 0) {
+                    stale++;
+                    return;
+                }
+                if (after != TouchEventCodec.AFTER_UNKNOWN && isAhead(sequence, after)) {
+                    hold(pointerId, sequence, after, x, y, receivedUs, fastestUs, dueUs);
+                    return;
+                }
+                enqueueMove(pointerId, sequence, x, y, receivedUs, fastestUs, dueUs);
+            } else {
+                // Also what a restarted sender starts with, so its sequence is taken as is.
+                lastSequence[pointerId] = sequence;
+                hasSequence[pointerId] = true;
+                lastEventSequence = sequence;
+                hasEventSequence = true;
+                enqueue(action, pointerId, x, y, receivedUs, fastestUs, dueUs);
+                if (heldCount > 0) {
+                    releaseHeld();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops what is queued and forgets sequences and clock offset, for the next call. Stats are kept.
+     */
+    synchronized void reset() {
+        executor.cancelOnUi(drainRunnable);
+        drainScheduled = false;
+        head = 0;
+        size = 0;
+        Arrays.fill(hasSequence, false);
+        hasEventSequence = false;
+        Arrays.fill(hasHeld, false);
+        heldCount = 0;
+        hasTransit = false;
+        jitterUs = 0;
+        windowMinUs = Long.MAX_VALUE;
+        previousWindowMinUs = Long.MAX_VALUE;
+    }
+
+    synchronized void resetStats() {
+        latencyNext = 0;
+        latencyCount = 0;
+        received = 0;
+        dispatched = 0;
+        superseded = 0;
+        stale = 0;
+        overflow = 0;
+    }
+
+    /**
+     * Record such as {"received":812,"dispatched":240,"superseded":560,"stale":12,"overflow":0,
+     * "latencyMs":{"p50":41.2,"p90":44.0,"p99":52.3,"max":60.1},"queueMs":{...}} of the last
+     * {@link #LATENCY_SAMPLES} events, latency being from the sender event to the listener call and
+     * queue from receive to the listener call.
+     *
+     * @param oneWayMs network one way delay estimate added to latency, 0 if unknown.
+     */
+    synchronized String toRecord(double oneWayMs) {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("{\"received\":").append(received)
+                .append(",\"dispatched\":").append(dispatched)
+                .append(",\"superseded\":").append(superseded)
+                .append(",\"stale\":").append(stale)
+                .append(",\"overflow\":").append(overflow)
+                .append(",\"latencyMs\":");
+        appendPercentiles(builder, latencyUs, (long) (oneWayMs * 1000));
+        builder.append(",\"queueMs\":");
+        appendPercentiles(builder, queueUs, 0);
+        return builder.append('}').toString();
+    }
+
+    private void drain() {
+        long nowUs = nowUs();
+        int count = 0;
+        synchronized (this) {
+            drainScheduled = false;
+            while (size > 0 && queue[head].dueUs <= nowUs) {
+                Event event = queue[head];
+                batch[count++].copyFrom(event);
+                latencyUs[latencyNext] = nowUs - event.fastestUs;
+                queueUs[latencyNext] = nowUs - event.receivedUs;
+                latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+                latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+                head = (head + 1) % queue.length;
+                size--;
+            }
+            dispatched += count;
+            if (size > 0) {
+                drainScheduled = true;
+                executor.scheduleOnUi(drainRunnable, delayMs(queue[head].dueUs, nowUs));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Event event = batch[i];
+            listener.onRemoteTouch(event.action, event.pointerId, event.x, event.y);
+        }
+    }
+
+    /**
+     * @return the sender to receiver offset of the fastest delivery lately.
+     */
+    private long updateOffset(long transitUs, long nowUs) {
+        if (!hasTransit) {
+            windowStartUs = nowUs;
+        } else {
+            // RFC 3550 interarrival jitter.
+            jitterUs += (Math.abs(transitUs - lastTransitUs) - jitterUs) / 16;
+        }
+        hasTransit = true;
+        lastTransitUs = transitUs;
+
+        // Two windows, so the minimum follows clock drift without forgetting it every window.
+        if (nowUs - windowStartUs > OFFSET_WINDOW_US) {
+            previousWindowMinUs = windowMinUs;
+            windowMinUs = Long.MAX_VALUE;
+            windowStartUs = nowUs;
+        }
+        windowMinUs = Math.min(windowMinUs, transitUs);
+        return Math.min(windowMinUs, previousWindowMinUs);
+    }
+
+    /**
+     * @return whether the action a move was sent after hasn't arrived yet. Only low bits of its sequence
+     * are known, they are enough as it was sent after the last action received or is that one.
+     */
+    private boolean isAhead(int sequence, int after) {
+        return !hasEventSequence
+                || sequence - lastEventSequence > 0 && after != (lastEventSequence & 0x7F);
+    }
+
+    private void hold(int pointerId, int sequence, int after, float x, float y,
+                      long receivedUs, long fastestUs, long dueUs) {
+        if (held[pointerId] == null) {
+            held[pointerId] = new Event();
+        }
+        if (!hasHeld[pointerId]) {
+            hasHeld[pointerId] = true;
+            heldCount++;
+        } else if (sequence - heldSequence[pointerId] > 0) {
+            superseded++;
+        } else {
+            stale++;
+            return;
+        }
+        held[pointerId].set(ACTION_MOVE, pointerId, x, y, receivedUs, fastestUs, dueUs);
+        heldSequence[pointerId] = sequence;
+        heldAfter[pointerId] = after;
+    }
+
+    /**
+     * Queues the held moves sent after the action just received, drops those sent before it, which can
+     * only be left over from a restarted sender.
+     */
+    private void releaseHeld() {
+        for (int pointerId = 0; pointerId < held.length && heldCount > 0; pointerId++) {
+            if (!hasHeld[pointerId]) {
+                continue;
+            }
+            int sequence = heldSequence[pointerId];
+            if (sequence - lastEventSequence > 0) {
+                if (isAhead(sequence, heldAfter[pointerId])) {
+                    continue;
+                }
+                Event event = held[pointerId];
+                enqueueMove(pointerId, sequence, event.x, event.y, event.receivedUs, event.fastestUs, event.dueUs);
+            } else {
+                stale++;
+            }
+            hasHeld[pointerId] = false;
+            heldCount--;
+        }
+    }
+
+    private void enqueueMove(int pointerId, int sequence, float x, float y,
+                             long receivedUs, long fastestUs, long dueUs) {
+        lastSequence[pointerId] = sequence;
+        hasSequence[pointerId] = true;
+        Event pending = lastQueued(pointerId);
+        if (pending != null && pending.action == ACTION_MOVE) {
+            pending.set(ACTION_MOVE, pointerId, x, y, receivedUs, fastestUs, dueUs);
+            superseded++;
+            return;
+        }
+        enqueue(ACTION_MOVE, pointerId, x, y, receivedUs, fastestUs, dueUs);
+    }
+
+    private void enqueue(int action, int pointerId, float x, float y, long receivedUs, long fastestUs, long dueUs) {
+        if (size == queue.length) {
+            evictOldest();
+        }
+        queue[(head + size) % queue.length].set(action, pointerId, x, y, receivedUs, fastestUs, dueUs);
+        size++;
+        if (!drainScheduled) {
+            drainScheduled = true;
+            executor.scheduleOnUi(drainRunnable, delayMs(queue[head].dueUs, receivedUs));
+        }
+    }
+
+    private Event lastQueued(int pointerId) {
+        for (int i = size - 1; i >= 0; i--) {
+            Event event = queue[(head + i) % queue.length];
+            if (event.pointerId == pointerId) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private void evictOldest() {
+        overflow++;
+        int evicted = 0;
+        while (evicted < size && queue[(head + evicted) % queue.length].action != ACTION_MOVE) {
+            evicted++;
+        }
+        if (evicted == size) {
+            // Nothing but downs and ups, the oldest goes.
+            evicted = 0;
+        }
+        // Slots are kept, the evicted one rotates to the free end.
+        for (int i = evicted; i < size - 1; i++) {
+            int current = (head + i) % queue.length;
+            int next = (head + i + 1) % queue.length;
+            Event swap = queue[current];
+            queue[current] = queue[next];
+            queue[next] = swap;
+        }
+        size--;
+    }
+
+    private void appendPercentiles(StringBuilder builder, long[] samples, long addUs) {
+        long[] sorted = Arrays.copyOf(samples, latencyCount);
+        Arrays.sort(sorted);
+        builder.append('{');
+        for (double percentile : PERCENTILES) {
+            builder.append("\"p").append((int) percentile).append("\":");
+            appendMs(builder, latencyCount == 0 ? 0 : sorted[(int) Math.ceil(percentile / 100 * latencyCount) - 1] + addUs);
+            builder.append(',');
+        }
+        builder.append("\"max\":");
+        appendMs(builder, latencyCount == 0 ? 0 : sorted[latencyCount - 1] + addUs);
+        builder.append('}');
+    }
+
+    // One decimal, as CallTimeline.
+    private static void appendMs(StringBuilder builder, long us) {
+        long tenths = us / 100;
+        builder.append(tenths / 10).append('.').append(Math.abs(tenths % 10));
+    }
+
+    private static long delayMs(long dueUs, long nowUs) {
+        return Math.max(0, (dueUs - nowUs + 999) / 1000);
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    private static final class Event {
+        int action;
+        int pointerId;
+        float x;
+        float y;
+        long receivedUs;
+        long fastestUs;
+        long dueUs;
+
+        void set(int action, int pointerId, float x, float y, long receivedUs, long fastestUs, long dueUs) {
+            this.action = action;
+            this.pointerId = pointerId;
+            this.x = x;
+            this.y = y;
+            this.receivedUs = receivedUs;
+            this.fastestUs = fastestUs;
+            this.dueUs = dueUs;
+        }
+
+        void copyFrom(Event other) {
+            set(other.action, other.pointerId, other.x, other.y, other.receivedUs, other.fastestUs, other.dueUs);
+        }
+    }
+
+}
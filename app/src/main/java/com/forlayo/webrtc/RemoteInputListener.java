@@ -0,0 +1,16 @@
+package com.forlayo.webrtc;
+
+/**
+ * Touches the other party makes on our shared screen, set with
+ * {@link IWebRTCCall#setRemoteInputListener(RemoteInputListener)}. Called on the UI thread, paced as
+ * they were made, with moves that were overtaken by newer ones already dropped.
+ */
+public interface RemoteInputListener {
+
+    /**
+     * @param action MotionEvent masked action.
+     * @param x      normalized 0..1 over the shared screen width.
+     * @param y      normalized 0..1 over the shared screen height.
+     */
+    void onRemoteTouch(int action, int pointerId, float x, float y);
+}
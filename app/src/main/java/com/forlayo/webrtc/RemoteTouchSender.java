@@ -0,0 +1,110 @@
+package com.forlayo.webrtc;
+
+import android.annotation.SuppressLint;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sends touches on the remote screen view as {@link TouchEventCodec} messages.
+ * <p>
+ * ACTION_MOVE events are not sent right away, only the latest one is kept and flushed on the next
+ * display frame, so the channel carries at most one move per vsync. Any other action flushes the
+ * pending move first to keep ordering. Both buffers are allocated once and reused.
+ * <p>
+ * Messages go through a {@link DataChannelRouter}, so moves travel on the unreliable pointer channel
+ * and the rest on backcontrol. A move can then arrive after the UP sent behind it, receivers tell by
+ * the sequence, or before the DOWN sent ahead of it, moves carry the sequence of that last other
+ * action for receivers to wait for it. Everything runs on the UI thread.
+ */
+class RemoteTouchSender implements View.OnTouchListener, Choreographer.FrameCallback {
+
+    private final ByteBuffer moveBuffer = TouchEventCodec.allocate();
+    private final ByteBuffer eventBuffer = TouchEventCodec.allocate();
+    private final DataChannel.Buffer moveMessage = new DataChannel.Buffer(moveBuffer, true);
+    private final DataChannel.Buffer eventMessage = new DataChannel.Buffer(eventBuffer, true);
+    private final DataChannelRouter router;
+    private int sequence;
+    private int lastEventSequence = TouchEventCodec.AFTER_UNKNOWN;
+
+    // Latest coalesced move, waiting for the next frame.
+    private boolean movePending;
+    private boolean frameScheduled;
+    private int movePointerId;
+    private float moveX;
+    private float moveY;
+    private long moveEventTime;
+
+    RemoteTouchSender(DataChannelRouter router) {
+        this.router = router;
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        if (!router.hasChannel() || v.getWidth() == 0 || v.getHeight() == 0) {
+            return false;
+        }
+
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_MOVE) {
+            movePointerId = event.getPointerId(0);
+            moveX = event.getX(0) / v.getWidth();
+            moveY = event.getY(0) / v.getHeight();
+            moveEventTime = event.getEventTime();
+            movePending = true;
+            if (!frameScheduled) {
+                frameScheduled = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+            return true;
+        }
+
+        flushMove();
+
+        int index = event.getActionIndex();
+        lastEventSequence = sequence;
+        TouchEventCodec.encode(eventBuffer,
+                action,
+                event.getPointerId(index),
+                sequence++,
+                event.getX(index) / v.getWidth(),
+                event.getY(index) / v.getHeight(),
+                event.getEventTime());
+        router.send(eventMessage);
+
+        // Consuming the gesture, otherwise moves after ACTION_DOWN never reach this listener.
+        return true;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (!router.hasChannel()) {
+            movePending = false;
+            return;
+        }
+        flushMove();
+    }
+
+    private void flushMove() {
+        if (!movePending) {
+            return;
+        }
+        movePending = false;
+        TouchEventCodec.encode(moveBuffer,
+                MotionEvent.ACTION_MOVE,
+                movePointerId,
+                sequence++,
+                moveX,
+                moveY,
+                moveEventTime,
+                lastEventSequence);
+        router.send(moveMessage);
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.forlayo.webrtc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Minimal line based SDP model, enough to rewrite what libwebrtc generates.
+ * <p>
+ * Lines are kept verbatim, unknown ones are preserved, so {@code Sdp.parse(s).toString()} returns the
+ * same description with CRLF line endings.
+ */
+final class Sdp {
+
+    private static final String CRLF = "\r\n";
+
+    private final List<String> sessionLines;
+    private final List<MediaSection> mediaSections;
+
+    private Sdp(List<String> sessionLines, List<MediaSection> mediaSections) {
+        this.sessionLines = sessionLines;
+        this.mediaSections = mediaSections;
+    }
+
+    static Sdp parse(String description) {
+        List<String> sessionLines = new ArrayList<>();
+        List<MediaSection> mediaSections = new ArrayList<>();
+        MediaSection current = null;
+
+        int start = 0;
+        int length = description.length();
+        while (start < length) {
+            int end = description.indexOf('\n', start);
+            if (end == -1) {
+                end = length;
+            }
+            int lineEnd = end > start && description.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                String line = description.substring(start, lineEnd);
+                if (line.startsWith("m=")) {
+                    current = new MediaSection(line);
+                    mediaSections.add(current);
+                } else if (current != null) {
+                    current.lines.add(line);
+                } else {
+                    sessionLines.add(line);
+                }
+            }
+            start = end + 1;
+        }
+        return new Sdp(sessionLines, mediaSections);
+    }
+
+    List<String> getSessionLines() {
+        return sessionLines;
+    }
+
+    List<MediaSection> getMediaSections() {
+        return Collections.unmodifiableList(mediaSections);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(4096);
+        for (String line : sessionLines) {
+            builder.append(line).append(CRLF);
+        }
+        for (MediaSection section : mediaSections) {
+            section.appendTo(builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * One m-line and the lines following it up to the next m-line.
+     */
+    static final class MediaSection {
+
+        private final List<String> lines = new ArrayList<>();
+        private String mLine;
+
+        private MediaSection(String mLine) {
+            this.mLine = mLine;
+        }
+
+        /**
+         * Media type, "audio", "video" or "application".
+         */
+        String getKind() {
+            int space = mLine.indexOf(' ');
+            return mLine.substring(2, space == -1 ? mLine.length() : space);
+        }
+
+        String getMid() {
+            return getAttribute("mid");
+        }
+
+        /**
+         * Lines after the m-line, can be modified in place.
+         */
+        List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * Value of the first "a=name:value" line, null if missing.
+         */
+        String getAttribute(String name) {
+            String prefix = "a=" + name + ":";
+            for (String line : lines) {
+                if (line.startsWith(prefix)) {
+                    return line.substring(prefix.length());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Payload types in m-line order, as strings.
+         */
+        List<String> getPayloadTypes() {
+            String[] parts = mLine.split(" ");
+            List<String> payloadTypes = new ArrayList<>(Math.max(0, parts.length - 3));
+            for (int i = 3; i < parts.length; i++) {
+                payloadTypes.add(parts[i]);
+            }
+            return payloadTypes;
+        }
+
+        void setPayloadTypes(List<String> payloadTypes) {
+            String[] parts = mLine.split(" ");
+            StringBuilder builder = new StringBuilder(parts[0]).append(' ').append(parts[1]).append(' ').append(parts[2]);
+            for (String payloadType : payloadTypes) {
+                builder.append(' ').append(payloadType);
+            }
+            mLine = builder.toString();
+        }
+
+        /**
+         * Payload types whose a=rtpmap encoding name matches, ignoring case ("H264", "VP8"...).
+         */
+        List<String> findPayloadTypes(String codecName) {
+            List<String> payloadTypes = new ArrayList<>();
+            for (String line : lines) {
+                if (!line.startsWith("a=rtpmap:")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                int slash = line.indexOf('/', space);
+                if (space == -1 || slash == -1) {
+                    continue;
+                }
+                if (line.substring(space + 1, slash).equalsIgnoreCase(codecName)) {
+                    payloadTypes.add(line.substring("a=rtpmap:".length(), space));
+                }
+            }
+            return payloadTypes;
+        }
+
+        /**
+         * Retransmission payload types bound to the given one with "a=fmtp:X apt=payloadType".
+         */
+        List<String> findRtxPayloadTypes(String payloadType) {
+            List<String> payloadTypes = new ArrayList<>();
+            String apt = "apt=" + payloadType;
+            for (String line : lines) {
+                if (!line.startsWith("a=fmtp:")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space != -1 && line.substring(space + 1).equals(apt)) {
+                    payloadTypes.add(line.substring("a=fmtp:".length(), space));
+                }
+            }
+            return payloadTypes;
+        }
+
+        /**
+         * Whether the track is sent in this section, looking at "a=msid" (Unified Plan) and
+         * "a=ssrc:N msid" (Plan B) lines.
+         */
+        boolean hasTrack(String trackId) {
+            for (String line : lines) {
+                if (line.startsWith("a=msid:") || (line.startsWith("a=ssrc:") && line.contains(" msid:"))) {
+                    if (line.endsWith(" " + trackId)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Replaces every "b=type:" line with the given value, placing it where RFC 4566 expects it,
+         * after the c= line.
+         */
+        void setBandwidth(String type, long value) {
+            String prefix = "b=" + type + ":";
+            int insertAt = -1;
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String line = lines.get(i);
+                if (line.startsWith(prefix)) {
+                    lines.remove(i);
+                    insertAt = i;
+                }
+            }
+            if (insertAt == -1) {
+                insertAt = 0;
+                for (int i = 0; i < lines.size(); i++) {
+                    String line = lines.get(i);
+                    if (line.startsWith("i=") || line.startsWith("c=") || line.startsWith("b=")) {
+                        insertAt = i + 1;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            lines.add(insertAt, prefix + value);
+        }
+
+        private void appendTo(StringBuilder builder) {
+            builder.append(mLine).append(CRLF);
+            for (String line : lines) {
+                builder.append(line).append(CRLF);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.forlayo.webrtc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate of SDP text with a preset dictionary of what WebRTC offers and answers repeat (codec
+ * lists, rtcp-fb, extmap URIs, ssrc attributes), as base64 so it still travels in a JSON string.
+ * <p>
+ * The dictionary is part of the encoding: {@link #ENCODING} names this one and it must never change,
+ * a different dictionary is a new encoding name. Deflaters and inflaters are kept per thread.
+ */
+final class SdpCompressionCodec {
+
+    static final String ENCODING = "dz1";
+
+    // Below this the deflate block and base64 cost about what they save.
+    static final int MIN_LENGTH = 256;
+
+    // Far above any SDP, bounds what a small crafted payload can inflate to.
+    static final int MAX_LENGTH = 64 * 1024;
+
+    // Built from SDPs of Chrome and the Android SDK around M72. Deflate reaches 32 KB back and prefers
+    // short distances, so the most common strings are last.
+    private static final byte[] DICTIONARY = (""
+            + "a=rtpmap:102 ILBC/8000\r\na=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\n"
+            + "a=rtpmap:106 CN/32000\r\na=rtpmap:105 CN/16000\r\na=rtpmap:13 CN/8000\r\n"
+            + "a=rtpmap:110 telephone-event/48000\r\na=rtpmap:112 telephone-event/32000\r\n"
+            + "a=rtpmap:113 telephone-event/16000\r\na=rtpmap:126 telephone-event/8000\r\n"
+            + "a=rtpmap:9 G722/8000\r\na=rtpmap:0 PCMU/8000\r\na=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\na=rtcp-fb:111 transport-cc\r\na=fmtp:111 minptime=10;useinbandfec=1\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 122 127 121 125 107 108 109 124 120 123 119 114 115 116\r\n"
+            + "m=application 9 DTLS/SCTP 5000\r\na=sctpmap:5000 webrtc-datachannel 1024\r\n"
+            + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\na=sctp-port:5000\r\n"
+            + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+            + "a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n"
+            + "a=extmap:13 urn:3gpp:video-orientation\r\n"
+            + "a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+            + "a=extmap:5 urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id\r\n"
+            + "a=extmap:6 urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id\r\n"
+            + "a=extmap:12 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+            + "a=extmap:11 http://www.webrtc.org/experiments/rtp-hdrext/video-content-type\r\n"
+            + "a=extmap:7 http://www.webrtc.org/experiments/rtp-hdrext/video-timing\r\n"
+            + "a=extmap:8 http://tools.ietf.org/html/draft-ietf-avtext-framemarking-07\r\n"
+            + "a=extmap:9 http://www.webrtc.org/experiments/rtp-hdrext/color-space\r\n"
+            + "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+            + "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+            + "a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42001f\r\n"
+            + "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=640c1f\r\n"
+            + "a=fmtp:98 profile-id=0\r\n"
+            + "a=rtpmap:96 VP8/90000\r\na=rtpmap:98 VP9/90000\r\na=rtpmap:100 H264/90000\r\n"
+            + "a=rtpmap:127 red/90000\r\na=rtpmap:125 ulpfec/90000\r\n"
+            + "a=rtpmap:97 rtx/90000\r\na=fmtp:97 apt=96\r\na=rtpmap:99 rtx/90000\r\na=fmtp:99 apt=98\r\n"
+            + "a=rtpmap:101 rtx/90000\r\na=fmtp:101 apt=100\r\na=rtpmap:124 rtx/90000\r\na=fmtp:124 apt=127\r\n"
+            + "a=rtcp-fb:96 goog-remb\r\na=rtcp-fb:96 transport-cc\r\na=rtcp-fb:96 ccm fir\r\na=rtcp-fb:96 nack\r\na=rtcp-fb:96 nack pli\r\n"
+            + "a=rtcp-fb:98 goog-remb\r\na=rtcp-fb:98 transport-cc\r\na=rtcp-fb:98 ccm fir\r\na=rtcp-fb:98 nack\r\na=rtcp-fb:98 nack pli\r\n"
+            + "a=rtcp-fb:100 goog-remb\r\na=rtcp-fb:100 transport-cc\r\na=rtcp-fb:100 ccm fir\r\na=rtcp-fb:100 nack\r\na=rtcp-fb:100 nack pli\r\n"
+            + "v=0\r\no=- 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n"
+            + "a=group:BUNDLE audio video data\r\na=group:BUNDLE 0 1 2\r\na=msid-semantic: WMS\r\n"
+            + "a=ice-options:trickle renomination\r\na=ice-options:trickle\r\n"
+            + "a=setup:actpass\r\na=setup:active\r\na=setup:passive\r\n"
+            + "a=sendrecv\r\na=sendonly\r\na=recvonly\r\na=inactive\r\na=rtcp-mux\r\na=rtcp-rsize\r\n"
+            + "a=ssrc-group:FID \r\n"
+            + "a=mid:audio\r\na=mid:video\r\na=mid:data\r\n"
+            + "c=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:\r\na=ice-pwd:\r\na=fingerprint:sha-256 \r\n"
+            + " cname:\r\na=ssrc: msid:\r\na=ssrc: mslabel:\r\na=ssrc: label:\r\na=ssrc:"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private SdpCompressionCodec() {
+    }
+
+    /**
+     * @return true if a comma separated "accept" value lists this encoding.
+     */
+    static boolean isAccepted(String accept) {
+        return PeerCapabilities.isAccepted(accept, ENCODING);
+    }
+
+    static String compress(String sdp) {
+        return base64(deflate(sdp.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String decompress(String data) throws IOException {
+        return new String(inflate(unbase64(data)), StandardCharsets.UTF_8);
+    }
+
+    static byte[] deflate(byte[] input) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 3 + 16);
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] inflate(byte[] input) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(input.length * 4, MAX_LENGTH));
+        byte[] buffer = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated " + ENCODING + " data");
+                }
+                if (out.size() + count > MAX_LENGTH) {
+                    throw new IOException(ENCODING + " data exceeds " + MAX_LENGTH + " bytes");
+                }
+                out.write(buffer, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid " + ENCODING + " data", e);
+        }
+        return out.toByteArray();
+    }
+
+    // android.util.Base64 isn't on the JVM and java.util.Base64 needs API 26.
+    private static String base64(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length + 2) / 3 * 4);
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            builder.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3f])
+                    .append(BASE64[(bits >>> 6) & 0x3f]).append(BASE64[bits & 0x3f]);
+        }
+        int left = bytes.length - i;
+        if (left > 0) {
+            int bits = (bytes[i] & 0xff) << 16 | (left == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            builder.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3f])
+                    .append(left == 2 ? BASE64[(bits >>> 6) & 0x3f] : '=').append('=');
+        }
+        return builder.toString();
+    }
+
+    private static byte[] unbase64(String data) throws IOException {
+        int length = data.length();
+        while (length > 0 && data.charAt(length - 1) == '=') {
+            length--;
+        }
+        byte[] bytes = new byte[length * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IOException("Invalid base64 at " + i);
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                bytes[out++] = (byte) (bits >> 16);
+                bytes[out++] = (byte) (bits >> 8);
+                bytes[out++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            bytes[out++] = (byte) (bits >> 10);
+            bytes[out++] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            bytes[out++] = (byte) (bits >> 4);
+        } else if (count == 1) {
+            throw new IOException("Invalid base64 length");
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.forlayo.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of {@link SdpTransform} applied to locally created offers and answers before they are set
+ * as local description and sent. The description is parsed once for the whole chain.
+ */
+final class SdpMunger {
+
+    private final List<SdpTransform> transforms = new ArrayList<>();
+
+    SdpMunger add(SdpTransform transform) {
+        transforms.add(transform);
+        return this;
+    }
+
+    String munge(String description) {
+        if (transforms.isEmpty()) {
+            return description;
+        }
+        Sdp sdp = Sdp.parse(description);
+        for (SdpTransform transform : transforms) {
+            transform.apply(sdp);
+        }
+        return sdp.toString();
+    }
+
+}
@@ -1,9 +1,9 @@
 package com.forlayo.webrtc;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 
+import java.util.List;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -18,6 +18,42 @@ public class SdpSignaling {
     @Getter
     private String sdp;
 
+    // Encoding of sdp when it isn't plain text, and the encodings the sender can read, see SignalingCompression
+    @SerializedName("enc")
+    @Setter
+    @Getter
+    private String enc;
+    @SerializedName("accept")
+    @Setter
+    @Getter
+    private String accept;
+
+    // Call the offer or answer belongs to, offers of the current call renegotiate it
+    @SerializedName("sessionId")
+    @Setter
+    @Getter
+    private String sessionId;
+
+    // Signaling session of the sender: its id, the sequence number of this message, the last sequence
+    // received from the other party and the session of the other party that ack counts, see
+    // SignalingSession
+    @SerializedName("from")
+    @Setter
+    @Getter
+    private String from;
+    @SerializedName("seq")
+    @Setter
+    @Getter
+    private Long seq;
+    @SerializedName("ack")
+    @Setter
+    @Getter
+    private Long ack;
+    @SerializedName("to")
+    @Setter
+    @Getter
+    private String to;
+
     // For ice candidates
     @SerializedName("sdpMid")
     @Setter
@@ -28,9 +64,51 @@ public class SdpSignaling {
     @Getter
     private Integer sdpMLineIndex;
 
+    // For batched ice candidates, type "candidates"
+    @SerializedName("candidates")
+    @Setter
+    @Getter
+    private List<Candidate> candidates;
+
     public String toJsonString() {
-        Gson gson = new GsonBuilder().create();
-        return gson.toJson(this);
+        return SdpSignalingCodec.toJson(this);
+    }
+
+    /**
+     * Shallow copy, candidates are shared.
+     */
+    public SdpSignaling copy() {
+        SdpSignaling copy = new SdpSignaling();
+        copy.type = type;
+        copy.sdp = sdp;
+        copy.enc = enc;
+        copy.accept = accept;
+        copy.sessionId = sessionId;
+        copy.from = from;
+        copy.seq = seq;
+        copy.ack = ack;
+        copy.to = to;
+        copy.sdpMid = sdpMid;
+        copy.sdpMLineIndex = sdpMLineIndex;
+        copy.candidates = candidates;
+        return copy;
+    }
+
+    public static class Candidate {
+
+        @SerializedName("sdpMid")
+        @Setter
+        @Getter
+        private String sdpMid;
+        @SerializedName("sdpMLineIndex")
+        @Setter
+        @Getter
+        private Integer sdpMLineIndex;
+        @SerializedName("sdp")
+        @Setter
+        @Getter
+        private String sdp;
+
     }
 
 }
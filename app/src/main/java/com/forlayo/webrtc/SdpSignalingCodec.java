@@ -0,0 +1,280 @@
+package com.forlayo.webrtc;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts {@link SdpSignaling} to and from what travels on the signaling socket in a single pass.
+ * <p>
+ * Strings go through one streaming {@link TypeAdapter} created once, socket.io payloads
+ * ({@link JSONObject}) are read and filled field by field, so there is no reflection, no Gson instance
+ * and no intermediate tree or re-parse. Absent fields are left null and null fields are not written.
+ */
+final class SdpSignalingCodec {
+
+    private static final String TYPE = "type";
+    private static final String SDP = "sdp";
+    private static final String ENC = "enc";
+    private static final String ACCEPT = "accept";
+    private static final String SESSION_ID = "sessionId";
+    private static final String FROM = "from";
+    private static final String SEQ = "seq";
+    private static final String ACK = "ack";
+    private static final String TO = "to";
+    private static final String SDP_MID = "sdpMid";
+    private static final String SDP_M_LINE_INDEX = "sdpMLineIndex";
+    private static final String CANDIDATES = "candidates";
+
+    private static final TypeAdapter<SdpSignaling> ADAPTER = new Adapter();
+
+    private SdpSignalingCodec() {
+    }
+
+    static String toJson(SdpSignaling signaling) {
+        return ADAPTER.toJson(signaling);
+    }
+
+    static SdpSignaling fromJson(String json) throws IOException {
+        return ADAPTER.fromJson(json);
+    }
+
+    static JSONObject toJsonObject(SdpSignaling signaling) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.putOpt(TYPE, signaling.getType());
+        obj.putOpt(SDP, signaling.getSdp());
+        obj.putOpt(ENC, signaling.getEnc());
+        obj.putOpt(ACCEPT, signaling.getAccept());
+        obj.putOpt(SESSION_ID, signaling.getSessionId());
+        obj.putOpt(FROM, signaling.getFrom());
+        obj.putOpt(SEQ, signaling.getSeq());
+        obj.putOpt(ACK, signaling.getAck());
+        obj.putOpt(TO, signaling.getTo());
+        obj.putOpt(SDP_MID, signaling.getSdpMid());
+        obj.putOpt(SDP_M_LINE_INDEX, signaling.getSdpMLineIndex());
+
+        List<SdpSignaling.Candidate> candidates = signaling.getCandidates();
+        if (candidates != null) {
+            JSONArray array = new JSONArray();
+            for (SdpSignaling.Candidate candidate : candidates) {
+                JSONObject candidateObj = new JSONObject();
+                candidateObj.putOpt(SDP_MID, candidate.getSdpMid());
+                candidateObj.putOpt(SDP_M_LINE_INDEX, candidate.getSdpMLineIndex());
+                candidateObj.putOpt(SDP, candidate.getSdp());
+                array.put(candidateObj);
+            }
+            obj.put(CANDIDATES, array);
+        }
+        return obj;
+    }
+
+    static SdpSignaling fromJsonObject(JSONObject obj) throws JSONException {
+        SdpSignaling signaling = new SdpSignaling();
+        signaling.setType(optString(obj, TYPE));
+        signaling.setSdp(optString(obj, SDP));
+        signaling.setEnc(optString(obj, ENC));
+        signaling.setAccept(optString(obj, ACCEPT));
+        signaling.setSessionId(optString(obj, SESSION_ID));
+        signaling.setFrom(optString(obj, FROM));
+        signaling.setSeq(optLong(obj, SEQ));
+        signaling.setAck(optLong(obj, ACK));
+        signaling.setTo(optString(obj, TO));
+        signaling.setSdpMid(optString(obj, SDP_MID));
+        signaling.setSdpMLineIndex(optInteger(obj, SDP_M_LINE_INDEX));
+
+        JSONArray array = obj.optJSONArray(CANDIDATES);
+        if (array != null) {
+            List<SdpSignaling.Candidate> candidates = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject candidateObj = array.getJSONObject(i);
+                SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+                candidate.setSdpMid(optString(candidateObj, SDP_MID));
+                candidate.setSdpMLineIndex(optInteger(candidateObj, SDP_M_LINE_INDEX));
+                candidate.setSdp(optString(candidateObj, SDP));
+                candidates.add(candidate);
+            }
+            signaling.setCandidates(candidates);
+        }
+        return signaling;
+    }
+
+    /**
+     * Decodes a socket.io "message" argument, which is a JSONObject unless the sender emitted a string.
+     */
+    static SdpSignaling fromPayload(Object payload) throws IOException, JSONException {
+        if (payload instanceof JSONObject) {
+            return fromJsonObject((JSONObject) payload);
+        }
+        if (payload instanceof String) {
+            return fromJson((String) payload);
+        }
+        throw new IOException("Unexpected signaling payload: " + (payload == null ? null : payload.getClass()));
+    }
+
+    private static String optString(JSONObject obj, String name) throws JSONException {
+        return obj.isNull(name) ? null : obj.getString(name);
+    }
+
+    private static Integer optInteger(JSONObject obj, String name) throws JSONException {
+        return obj.isNull(name) ? null : obj.getInt(name);
+    }
+
+    private static Long optLong(JSONObject obj, String name) throws JSONException {
+        return obj.isNull(name) ? null : obj.getLong(name);
+    }
+
+    private static final class Adapter extends TypeAdapter<SdpSignaling> {
+
+        @Override
+        public void write(JsonWriter out, SdpSignaling signaling) throws IOException {
+            if (signaling == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, TYPE, signaling.getType());
+            writeString(out, SDP, signaling.getSdp());
+            writeString(out, ENC, signaling.getEnc());
+            writeString(out, ACCEPT, signaling.getAccept());
+            writeString(out, SESSION_ID, signaling.getSessionId());
+            writeString(out, FROM, signaling.getFrom());
+            if (signaling.getSeq() != null) {
+                out.name(SEQ).value(signaling.getSeq());
+            }
+            if (signaling.getAck() != null) {
+                out.name(ACK).value(signaling.getAck());
+            }
+            writeString(out, TO, signaling.getTo());
+            writeString(out, SDP_MID, signaling.getSdpMid());
+            if (signaling.getSdpMLineIndex() != null) {
+                out.name(SDP_M_LINE_INDEX).value(signaling.getSdpMLineIndex());
+            }
+
+            List<SdpSignaling.Candidate> candidates = signaling.getCandidates();
+            if (candidates != null) {
+                out.name(CANDIDATES).beginArray();
+                for (SdpSignaling.Candidate candidate : candidates) {
+                    out.beginObject();
+                    writeString(out, SDP_MID, candidate.getSdpMid());
+                    if (candidate.getSdpMLineIndex() != null) {
+                        out.name(SDP_M_LINE_INDEX).value(candidate.getSdpMLineIndex());
+                    }
+                    writeString(out, SDP, candidate.getSdp());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public SdpSignaling read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            SdpSignaling signaling = new SdpSignaling();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case TYPE:
+                        signaling.setType(in.nextString());
+                        break;
+                    case SDP:
+                        signaling.setSdp(in.nextString());
+                        break;
+                    case ENC:
+                        signaling.setEnc(in.nextString());
+                        break;
+                    case ACCEPT:
+                        signaling.setAccept(in.nextString());
+                        break;
+                    case SESSION_ID:
+                        signaling.setSessionId(in.nextString());
+                        break;
+                    case FROM:
+                        signaling.setFrom(in.nextString());
+                        break;
+                    case SEQ:
+                        signaling.setSeq(in.nextLong());
+                        break;
+                    case ACK:
+                        signaling.setAck(in.nextLong());
+                        break;
+                    case TO:
+                        signaling.setTo(in.nextString());
+                        break;
+                    case SDP_MID:
+                        signaling.setSdpMid(in.nextString());
+                        break;
+                    case SDP_M_LINE_INDEX:
+                        signaling.setSdpMLineIndex(in.nextInt());
+                        break;
+                    case CANDIDATES:
+                        signaling.setCandidates(readCandidates(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return signaling;
+        }
+
+        private static List<SdpSignaling.Candidate> readCandidates(JsonReader in) throws IOException {
+            List<SdpSignaling.Candidate> candidates = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case SDP_MID:
+                            candidate.setSdpMid(in.nextString());
+                            break;
+                        case SDP_M_LINE_INDEX:
+                            candidate.setSdpMLineIndex(in.nextInt());
+                            break;
+                        case SDP:
+                            candidate.setSdp(in.nextString());
+                            break;
+                        default:
+                            in.skipValue();
+                            break;
+                    }
+                }
+                in.endObject();
+                candidates.add(candidate);
+            }
+            in.endArray();
+            return candidates;
+        }
+
+        private static void writeString(JsonWriter out, String name, String value) throws IOException {
+            if (value != null) {
+                out.name(name).value(value);
+            }
+        }
+    }
+
+}
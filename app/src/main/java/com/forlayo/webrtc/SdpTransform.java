@@ -0,0 +1,8 @@
+package com.forlayo.webrtc;
+
+/**
+ * One rewriting step of {@link SdpMunger}, modifies the description in place.
+ */
+interface SdpTransform {
+    void apply(Sdp sdp);
+}
@@ -0,0 +1,63 @@
+package com.forlayo.webrtc;
+
+import java.io.IOException;
+
+/**
+ * Compresses the sdp of outgoing messages with {@link SdpCompressionCodec} once the other party has
+ * said it can read it, and decompresses incoming ones.
+ * <p>
+ * Every message leaves with "accept" ({@link PeerCapabilities#ACCEPT}) listing the encoding, the other party uses it from the next
+ * message on. Old clients never send it, so they keep getting plain SDP, and the first offer of a
+ * call to a party not heard from yet goes plain too. What is received compressed gets "enc" cleared
+ * and plain sdp before anything else sees it.
+ */
+class SignalingCompression implements SignalingOutbox.Transport {
+
+    private final SignalingOutbox.Transport socket;
+    private volatile boolean peerAccepts;
+
+    SignalingCompression(SignalingOutbox.Transport socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    /**
+     * Sends a copy carrying "accept", with the sdp compressed when the other party reads it.
+     */
+    @Override
+    public void emit(SdpSignaling cmd) throws Exception {
+        SdpSignaling wire = cmd.copy();
+        wire.setAccept(PeerCapabilities.ACCEPT);
+        String sdp = cmd.getSdp();
+        if (peerAccepts && cmd.getEnc() == null && sdp != null && sdp.length() >= SdpCompressionCodec.MIN_LENGTH) {
+            wire.setSdp(SdpCompressionCodec.compress(sdp));
+            wire.setEnc(SdpCompressionCodec.ENCODING);
+        }
+        socket.emit(wire);
+    }
+
+    /**
+     * Call on every received message, before anything reads it.
+     *
+     * @throws IOException if the sdp uses an unknown encoding or can't be decompressed.
+     */
+    SdpSignaling onReceived(SdpSignaling cmd) throws IOException {
+        peerAccepts = SdpCompressionCodec.isAccepted(cmd.getAccept());
+        if (cmd.getEnc() == null) {
+            return cmd;
+        }
+        if (!SdpCompressionCodec.ENCODING.equals(cmd.getEnc())) {
+            throw new IOException("Unknown sdp encoding " + cmd.getEnc());
+        }
+        if (cmd.getSdp() != null) {
+            cmd.setSdp(SdpCompressionCodec.decompress(cmd.getSdp()));
+        }
+        cmd.setEnc(null);
+        return cmd;
+    }
+
+}
@@ -0,0 +1,322 @@
+package com.forlayo.webrtc;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Outbound signaling queue between WebRTCCall and the socket. {@link #toSend} only queues and returns,
+ * whatever thread calls it, and messages are handed to the {@link Transport} on the executor while it
+ * is connected, kept while it isn't.
+ * <p>
+ * Offers, answers and any other control message go ahead of candidates. A new offer or answer
+ * supersedes the queued ones, and candidates of another session. Queued candidates of the same session
+ * are merged into "candidates" messages of up to {@link IceCandidateBatcher#MAX_BATCH_SIZE} without
+ * duplicates, sent again as single "candidate" messages to a party that doesn't read batches (see
+ * {@link PeerCapabilities}). The queue is bounded: when full the oldest candidates go first and control messages are
+ * only refused when there are no candidates left to make room. Every message ends in one
+ * {@link ISignaling.SendCallback} call, sent (with the merged message it went in) or dropped with the
+ * reason.
+ */
+class SignalingOutbox implements ISignaling {
+
+    private static final String TAG = SignalingOutbox.class.getCanonicalName();
+
+    static final String DROP_SUPERSEDED = "superseded";
+    static final String DROP_OVERFLOW = "overflow";
+    static final String DROP_FAILED = "failed";
+    static final String DROP_CLEARED = "cleared";
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    interface Transport {
+        boolean isConnected();
+
+        /**
+         * Writes one message to the socket, executor thread.
+         */
+        void emit(SdpSignaling cmd) throws Exception;
+    }
+
+    private static final class Entry {
+        SdpSignaling cmd;
+        final List<SendCallback> callbacks = new ArrayList<>(1);
+
+        Entry(SdpSignaling cmd, SendCallback callback) {
+            this.cmd = cmd;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+    }
+
+    private final Executor executor;
+    private final Transport transport;
+    private final PeerCapabilities peer;
+    private final int capacity;
+    private final Runnable drainRunnable = this::drain;
+
+    // Guarded by this.
+    private final ArrayDeque<Entry> control = new ArrayDeque<>();
+    private final ArrayDeque<Entry> candidates = new ArrayDeque<>();
+    private boolean drainPosted;
+
+    SignalingOutbox(Executor executor, Transport transport, PeerCapabilities peer) {
+        this(executor, transport, peer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity max queued messages, merged candidates count as one.
+     */
+    SignalingOutbox(Executor executor, Transport transport, PeerCapabilities peer, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.executor = executor;
+        this.transport = transport;
+        this.peer = peer;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void toSend(SdpSignaling cmd) {
+        toSend(cmd, null);
+    }
+
+    @Override
+    public void toSend(SdpSignaling cmd, SendCallback callback) {
+        List<Entry> superseded = new ArrayList<>();
+        List<Entry> overflown = new ArrayList<>();
+        synchronized (this) {
+            if (isCandidate(cmd)) {
+                if (!mergeCandidates(cmd, callback)) {
+                    makeRoom(overflown);
+                    candidates.add(new Entry(cmd, callback));
+                }
+            } else {
+                if (isDescription(cmd)) {
+                    supersede(cmd, superseded);
+                }
+                if (makeRoom(overflown)) {
+                    control.add(new Entry(cmd, callback));
+                } else {
+                    Log.w(TAG, "Queue full, refusing " + cmd.getType());
+                    overflown.add(new Entry(cmd, callback));
+                }
+            }
+            postDrain();
+        }
+        notifyDropped(superseded, DROP_SUPERSEDED);
+        notifyDropped(overflown, DROP_OVERFLOW);
+    }
+
+    @Override
+    public boolean acceptsCandidates() {
+        return peer.acceptsCandidates();
+    }
+
+    /**
+     * Call when the transport (re)connects, what was kept meanwhile is sent.
+     */
+    void onConnected() {
+        synchronized (this) {
+            postDrain();
+        }
+    }
+
+    /**
+     * Drops everything queued, for when the signaling goes away for good.
+     */
+    void clear() {
+        List<Entry> dropped = new ArrayList<>();
+        synchronized (this) {
+            dropped.addAll(control);
+            dropped.addAll(candidates);
+            control.clear();
+            candidates.clear();
+        }
+        notifyDropped(dropped, DROP_CLEARED);
+    }
+
+    synchronized int getPendingCount() {
+        return control.size() + candidates.size();
+    }
+
+    private void postDrain() {
+        if (!drainPosted && (!control.isEmpty() || !candidates.isEmpty())) {
+            drainPosted = true;
+            executor.execute(drainRunnable);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                if (!transport.isConnected()) {
+                    // onConnected() posts again.
+                    drainPosted = false;
+                    return;
+                }
+                entry = control.isEmpty() ? candidates.poll() : control.poll();
+                if (entry == null) {
+                    drainPosted = false;
+                    return;
+                }
+            }
+            try {
+                emit(entry.cmd);
+                Log.d(TAG, "drain() SENT :: " + entry.cmd.getType());
+                for (SendCallback callback : entry.callbacks) {
+                    callback.onSent(entry.cmd);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "drain() exception sending " + entry.cmd.getType(), e);
+                notifyDropped(entry, DROP_FAILED);
+            }
+        }
+    }
+
+    private void emit(SdpSignaling cmd) throws Exception {
+        if (cmd.getCandidates() == null || peer.acceptsCandidates()) {
+            transport.emit(cmd);
+            return;
+        }
+        for (SdpSignaling.Candidate candidate : cmd.getCandidates()) {
+            SdpSignaling single = new SdpSignaling();
+            single.setType("candidate");
+            single.setSessionId(cmd.getSessionId());
+            single.setSdpMid(candidate.getSdpMid());
+            single.setSdpMLineIndex(candidate.getSdpMLineIndex());
+            single.setSdp(candidate.getSdp());
+            transport.emit(single);
+        }
+    }
+
+    /**
+     * Removes queued offers and answers, and candidates of other sessions, a new description makes
+     * them useless.
+     */
+    private void supersede(SdpSignaling description, List<Entry> dropped) {
+        for (Iterator<Entry> it = control.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (isDescription(entry.cmd)) {
+                it.remove();
+                dropped.add(entry);
+            }
+        }
+        String session = description.getSessionId();
+        if (session == null) {
+            return;
+        }
+        for (Iterator<Entry> it = candidates.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.cmd.getSessionId() != null && !session.equals(entry.cmd.getSessionId())) {
+                it.remove();
+                dropped.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Frees a slot if the queue is full, oldest candidates first.
+     *
+     * @return false if the queue is full of control messages.
+     */
+    private boolean makeRoom(List<Entry> dropped) {
+        if (control.size() + candidates.size() < capacity) {
+            return true;
+        }
+        Entry oldest = candidates.poll();
+        if (oldest == null) {
+            return false;
+        }
+        Log.w(TAG, "Queue full, dropping " + oldest.cmd.getType());
+        dropped.add(oldest);
+        return true;
+    }
+
+    /**
+     * Adds the candidates to the last queued message of the same session when they fit, as a new
+     * "candidates" message so the ones given to toSend() are never modified.
+     */
+    private boolean mergeCandidates(SdpSignaling cmd, SendCallback callback) {
+        Entry last = candidates.peekLast();
+        if (last == null || !equals(last.cmd.getSessionId(), cmd.getSessionId())) {
+            return false;
+        }
+        List<SdpSignaling.Candidate> merged = toCandidateList(last.cmd);
+        Set<String> seen = new HashSet<>();
+        for (SdpSignaling.Candidate candidate : merged) {
+            seen.add(key(candidate));
+        }
+        int before = merged.size();
+        for (SdpSignaling.Candidate candidate : toCandidateList(cmd)) {
+            if (seen.add(key(candidate))) {
+                merged.add(candidate);
+            }
+        }
+        if (merged.size() > IceCandidateBatcher.MAX_BATCH_SIZE) {
+            return false;
+        }
+        if (merged.size() > before) {
+            SdpSignaling batch = new SdpSignaling();
+            batch.setType("candidates");
+            batch.setSessionId(last.cmd.getSessionId());
+            batch.setCandidates(merged);
+            last.cmd = batch;
+        }
+        if (callback != null) {
+            last.callbacks.add(callback);
+        }
+        return true;
+    }
+
+    private void notifyDropped(List<Entry> entries, String reason) {
+        for (Entry entry : entries) {
+            notifyDropped(entry, reason);
+        }
+    }
+
+    private static void notifyDropped(Entry entry, String reason) {
+        for (SendCallback callback : entry.callbacks) {
+            callback.onDropped(entry.cmd, reason);
+        }
+    }
+
+    private static List<SdpSignaling.Candidate> toCandidateList(SdpSignaling cmd) {
+        if (cmd.getCandidates() != null) {
+            return new ArrayList<>(cmd.getCandidates());
+        }
+        SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+        candidate.setSdpMid(cmd.getSdpMid());
+        candidate.setSdpMLineIndex(cmd.getSdpMLineIndex());
+        candidate.setSdp(cmd.getSdp());
+        List<SdpSignaling.Candidate> list = new ArrayList<>();
+        list.add(candidate);
+        return list;
+    }
+
+    private static String key(SdpSignaling.Candidate candidate) {
+        return candidate.getSdpMid() + "/" + candidate.getSdpMLineIndex() + "/" + candidate.getSdp();
+    }
+
+    private static boolean isCandidate(SdpSignaling cmd) {
+        return "candidate".equalsIgnoreCase(cmd.getType()) || "candidates".equalsIgnoreCase(cmd.getType());
+    }
+
+    private static boolean isDescription(SdpSignaling cmd) {
+        return "offer".equalsIgnoreCase(cmd.getType()) || "answer".equalsIgnoreCase(cmd.getType());
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.forlayo.webrtc;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Sequence numbers, acks and replay between the signaling queue and the socket, so what is lost while
+ * the socket reconnects is sent again instead of stalling the call until ICE gives up.
+ * <p>
+ * Every message leaves with the id of this session ("from"), its sequence number ("seq"), the last
+ * sequence received in order from the other party ("ack") and the id of the other party that ack
+ * counts ("to"), acks also go alone after
+ * {@link #ACK_DELAY_MS} when there is nothing to carry them. Sent messages are kept until acked, up
+ * to the replay capacity. On reconnect, and when a gap shows up on receive, a "resume" with our ack
+ * asks the other party to replay what we miss, and we replay what it didn't ack. Duplicates are
+ * dropped on receive.
+ * <p>
+ * Peers that never sent a "from" are old clients: their messages are delivered as they come and
+ * nothing is resumed or replayed to them. A different "from" means the other app restarted, what
+ * was kept for the previous one is dropped. Numbering isn't restarted for it: the first sequenced
+ * message from a party that doesn't know us yet sets where its sequence starts, and acks meant for
+ * another session of ours are ignored. Emits run on the executor, receive on any thread.
+ */
+class SignalingSession implements SignalingOutbox.Transport {
+
+    private static final String TAG = SignalingSession.class.getCanonicalName();
+
+    static final String TYPE_ACK = "ack";
+    static final String TYPE_RESUME = "resume";
+
+    static final int DEFAULT_REPLAY_CAPACITY = 128;
+    static final long ACK_DELAY_MS = 100;
+    // Gaps ask for a resume at most this often, the replay answering one fills the rest.
+    static final long RESUME_INTERVAL_MS = 500;
+
+    private final CallExecutor executor;
+    private final SignalingOutbox.Transport socket;
+    private final int replayCapacity;
+    private final String id = UUID.randomUUID().toString();
+    private final Runnable ackRunnable = this::sendAck;
+    private final Runnable resumeRunnable = this::sendResume;
+
+    // Guarded by this.
+    private final ArrayDeque<SdpSignaling> unacked = new ArrayDeque<>();
+    private final TreeSet<Long> receivedAhead = new TreeSet<>();
+    private long nextSeq = 1;
+    private String peerId;
+    private long received;
+    // Until the first sequenced message from the other party.
+    private boolean baselinePending = true;
+    private long ackSent;
+    private long lastResumeMs;
+    private boolean ackPosted;
+
+    SignalingSession(CallExecutor executor, SignalingOutbox.Transport socket) {
+        this(executor, socket, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    SignalingSession(CallExecutor executor, SignalingOutbox.Transport socket, int replayCapacity) {
+        if (replayCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid replay capacity " + replayCapacity);
+        }
+        this.executor = executor;
+        this.socket = socket;
+        this.replayCapacity = replayCapacity;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    /**
+     * Stamps and sends a copy of the message, kept for replay until acked.
+     */
+    @Override
+    public synchronized void emit(SdpSignaling cmd) throws Exception {
+        SdpSignaling wire = cmd.copy();
+        wire.setFrom(id);
+        wire.setSeq(nextSeq);
+        stampAck(wire);
+        // Not sent means no sequence used, the other party would wait for it forever.
+        socket.emit(wire);
+        nextSeq++;
+        unacked.add(wire);
+        if (unacked.size() > replayCapacity) {
+            SdpSignaling evicted = unacked.poll();
+            Log.w(TAG, "Replay buffer full, " + evicted.getType() + " #" + evicted.getSeq() + " can't be replayed anymore");
+        }
+    }
+
+    /**
+     * Call on every received message.
+     *
+     * @return the message to handle, null for acks, resumes and duplicates.
+     */
+    SdpSignaling onReceived(SdpSignaling cmd) {
+        if (cmd.getFrom() == null) {
+            return cmd;
+        }
+        synchronized (this) {
+            if (!cmd.getFrom().equals(peerId)) {
+                if (peerId != null) {
+                    Log.w(TAG, "Other party restarted its signaling, dropping " + unacked.size() + " messages kept for replay");
+                    unacked.clear();
+                    received = 0;
+                    ackSent = 0;
+                    receivedAhead.clear();
+                    baselinePending = true;
+                }
+                peerId = cmd.getFrom();
+            }
+            // An ack of another session of ours counts messages of that one.
+            Long ack = id.equals(cmd.getTo()) ? cmd.getAck() : null;
+            if (ack != null) {
+                trim(ack);
+            }
+
+            if (TYPE_ACK.equals(cmd.getType())) {
+                return null;
+            }
+            if (TYPE_RESUME.equals(cmd.getType())) {
+                long from = ack == null ? 0 : ack;
+                executor.execute(() -> replay(from));
+                return null;
+            }
+
+            Long seq = cmd.getSeq();
+            if (seq == null) {
+                return cmd;
+            }
+            if (baselinePending) {
+                baselinePending = false;
+                // Numbering it kept from talking to a previous session of ours goes on, a new party
+                // starts at 1 and what is missing before it is resumed.
+                if (cmd.getTo() != null && !id.equals(cmd.getTo())) {
+                    received = seq - 1;
+                }
+            }
+            if (seq <= received || receivedAhead.contains(seq)) {
+                // Our ack may have been lost, send it again even if nothing new.
+                ackSent = 0;
+                postAck();
+                return null;
+            }
+            if (seq == received + 1) {
+                received = seq;
+                while (receivedAhead.remove(received + 1)) {
+                    received++;
+                }
+            } else {
+                Log.w(TAG, "Signaling gap, got #" + seq + " after #" + received);
+                receivedAhead.add(seq);
+                if (receivedAhead.size() > replayCapacity) {
+                    // Beyond what the other party keeps, the missing ones are gone.
+                    Log.w(TAG, "Giving up on #" + (received + 1) + " to #" + (receivedAhead.first() - 1));
+                    received = receivedAhead.pollFirst();
+                    while (receivedAhead.remove(received + 1)) {
+                        received++;
+                    }
+                } else {
+                    executor.execute(resumeRunnable);
+                }
+            }
+            postAck();
+            return cmd;
+        }
+    }
+
+    /**
+     * Call when the socket (re)connects, before letting the outbox drain.
+     */
+    void onConnected() {
+        executor.execute(() -> {
+            synchronized (this) {
+                // Nothing to resume with old clients, or before hearing from the other party.
+                if (peerId == null) {
+                    return;
+                }
+                lastResumeMs = 0;
+            }
+            sendResume();
+            replay(0);
+        });
+    }
+
+    private synchronized void sendResume() {
+        long now = System.currentTimeMillis();
+        if (peerId == null || now - lastResumeMs < RESUME_INTERVAL_MS) {
+            return;
+        }
+        lastResumeMs = now;
+        SdpSignaling resume = new SdpSignaling();
+        resume.setType(TYPE_RESUME);
+        resume.setFrom(id);
+        // Sent even without anything new to ack, it's what asks for the replay.
+        stampAck(resume);
+        emitControl(resume);
+    }
+
+    private synchronized void sendAck() {
+        ackPosted = false;
+        if (received <= ackSent) {
+            return;
+        }
+        SdpSignaling ack = new SdpSignaling();
+        ack.setType(TYPE_ACK);
+        ack.setFrom(id);
+        stampAck(ack);
+        emitControl(ack);
+    }
+
+    /**
+     * Sends again every kept message after the given ack of the other party.
+     */
+    private synchronized void replay(long after) {
+        trim(after);
+        if (!unacked.isEmpty() && unacked.peek().getSeq() > after + 1) {
+            Log.w(TAG, "Replay from #" + (after + 1) + " requested, #" + unacked.peek().getSeq() + " is the oldest kept");
+        }
+        for (SdpSignaling wire : unacked) {
+            stampAck(wire);
+            emitControl(wire);
+        }
+        if (!unacked.isEmpty()) {
+            Log.d(TAG, "replay() " + unacked.size() + " messages after #" + after);
+        }
+    }
+
+    private void trim(long ack) {
+        while (!unacked.isEmpty() && unacked.peek().getSeq() <= ack) {
+            unacked.poll();
+        }
+    }
+
+    private void stampAck(SdpSignaling wire) {
+        if (peerId != null) {
+            wire.setAck(received);
+            wire.setTo(peerId);
+            ackSent = received;
+        }
+    }
+
+    private void postAck() {
+        if (!ackPosted) {
+            ackPosted = true;
+            executor.schedule(ackRunnable, ACK_DELAY_MS);
+        }
+    }
+
+    private void emitControl(SdpSignaling cmd) {
+        if (!socket.isConnected()) {
+            // Resumed on the next connect.
+            return;
+        }
+        try {
+            socket.emit(cmd);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception sending " + cmd.getType(), e);
+        }
+    }
+
+}
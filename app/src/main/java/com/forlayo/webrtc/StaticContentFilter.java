@@ -0,0 +1,138 @@
+package com.forlayo.webrtc;
+
+import org.webrtc.CapturerObserver;
+import org.webrtc.VideoFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sits between a capturer and its VideoSource and drops frames while the captured content doesn't
+ * change, letting one through every keep alive interval so the stream doesn't look frozen.
+ * <p>
+ * Each frame is scaled down to a small luma signature, on the GPU for texture frames, and compared to
+ * the previous one. Any change lets frames through at full rate again, and they keep going for a settle
+ * time after the last change so the encoder can refine the now still image before frames are dropped.
+ * Runs on the capturer thread.
+ */
+class StaticContentFilter implements CapturerObserver {
+
+    private static final int SIGNATURE_WIDTH = 64;
+    private static final int SIGNATURE_HEIGHT = 36;
+    // Luma difference of a signature pixel counted as a change, scaling is deterministic so it can be low.
+    private static final int PIXEL_THRESHOLD = 2;
+
+    private final CapturerObserver downstream;
+    private final long keepAliveIntervalNs;
+    private final long settleTimeNs;
+
+    private byte[] signature = new byte[SIGNATURE_WIDTH * SIGNATURE_HEIGHT];
+    private byte[] previousSignature = new byte[SIGNATURE_WIDTH * SIGNATURE_HEIGHT];
+    private boolean hasPreviousSignature;
+    private long lastChangeNs;
+    private long lastForwardedNs;
+
+    private volatile boolean enabled = true;
+    private volatile long forwardedFrames;
+    private volatile long droppedFrames;
+
+    /**
+     * @param keepAliveIntervalMs time between frames let through while content is still.
+     * @param settleTimeMs        time at full rate after the last change.
+     */
+    StaticContentFilter(CapturerObserver downstream, long keepAliveIntervalMs, long settleTimeMs) {
+        if (keepAliveIntervalMs <= 0 || settleTimeMs < 0) {
+            throw new IllegalArgumentException("Invalid keep alive " + keepAliveIntervalMs + " or settle time " + settleTimeMs);
+        }
+        this.downstream = downstream;
+        this.keepAliveIntervalNs = keepAliveIntervalMs * 1_000_000;
+        this.settleTimeNs = settleTimeMs * 1_000_000;
+    }
+
+    /**
+     * Disabled, every frame goes through. Any thread.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    long getForwardedFrames() {
+        return forwardedFrames;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+        hasPreviousSignature = false;
+        downstream.onCapturerStarted(success);
+    }
+
+    @Override
+    public void onCapturerStopped() {
+        hasPreviousSignature = false;
+        downstream.onCapturerStopped();
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+        if (!enabled) {
+            forward(frame);
+            return;
+        }
+
+        long timestampNs = frame.getTimestampNs();
+        computeSignature(frame.getBuffer());
+        boolean changed = !hasPreviousSignature || differs(signature, previousSignature);
+        byte[] swap = previousSignature;
+        previousSignature = signature;
+        signature = swap;
+        hasPreviousSignature = true;
+
+        if (changed) {
+            lastChangeNs = timestampNs;
+        }
+        if (changed
+                || timestampNs - lastChangeNs < settleTimeNs
+                || timestampNs - lastForwardedNs >= keepAliveIntervalNs) {
+            lastForwardedNs = timestampNs;
+            forward(frame);
+        } else {
+            droppedFrames++;
+        }
+    }
+
+    private void forward(VideoFrame frame) {
+        forwardedFrames++;
+        downstream.onFrameCaptured(frame);
+    }
+
+    private void computeSignature(VideoFrame.Buffer buffer) {
+        VideoFrame.Buffer scaled = buffer.cropAndScale(0, 0, buffer.getWidth(), buffer.getHeight(),
+                SIGNATURE_WIDTH, SIGNATURE_HEIGHT);
+        VideoFrame.I420Buffer i420 = scaled.toI420();
+        scaled.release();
+
+        ByteBuffer dataY = i420.getDataY();
+        int strideY = i420.getStrideY();
+        int base = dataY.position();
+        for (int row = 0; row < SIGNATURE_HEIGHT; row++) {
+            int rowStart = base + row * strideY;
+            for (int column = 0; column < SIGNATURE_WIDTH; column++) {
+                signature[row * SIGNATURE_WIDTH + column] = dataY.get(rowStart + column);
+            }
+        }
+        i420.release();
+    }
+
+    private static boolean differs(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs((a[i] & 0xff) - (b[i] & 0xff)) > PIXEL_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.forlayo.webrtc;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Polls {@link PeerConnection#getStats} at a fixed interval and stores per-track metrics of the
+ * inbound and outbound RTP streams in a {@link TrackStatsRing}.
+ * <p>
+ * Bitrate and frame rate are computed from counter deltas between two polls. RTT, jitter and loss of
+ * outbound streams come from the remote-inbound-rtp report when the SDK provides it, RTT falls back
+ * to the selected candidate pair. Call thread only, except {@link #snapshot(String)}.
+ */
+class StatsSampler {
+
+    private final CallExecutor callExecutor;
+    private final long intervalMs;
+    private final Set<String> trackIds;
+    private final TrackStatsRing ring;
+    private final Runnable pollRunnable = this::poll;
+
+    // Scratch state reused between polls.
+    private final TrackStatsSample sample = new TrackStatsSample();
+    private final Map<String, Counters> previousCounters = new HashMap<>();
+    private final Map<String, RTCStats> remoteInboundByLocalId = new HashMap<>();
+    private PeerConnection peerConnection;
+
+    StatsSampler(CallExecutor callExecutor, long intervalMs, int capacity, String... trackIds) {
+        this.callExecutor = callExecutor;
+        this.intervalMs = intervalMs;
+        this.trackIds = new HashSet<>(Arrays.asList(trackIds));
+        this.ring = new TrackStatsRing(capacity);
+    }
+
+    void start(PeerConnection peerConnection) {
+        stop();
+        this.peerConnection = peerConnection;
+        callExecutor.schedule(pollRunnable, intervalMs);
+    }
+
+    void stop() {
+        callExecutor.cancel(pollRunnable);
+        peerConnection = null;
+        previousCounters.clear();
+    }
+
+    /**
+     * Stored samples, oldest first, of one track or of all of them for a null id. Any thread.
+     */
+    List<TrackStatsSample> snapshot(String trackId) {
+        return ring.snapshot(trackId);
+    }
+
+    private void poll() {
+        final PeerConnection polled = peerConnection;
+        if (polled == null) {
+            return;
+        }
+        polled.getStats(report -> callExecutor.execute(() -> {
+            // Report of a call already closed.
+            if (polled == peerConnection) {
+                process(report);
+            }
+        }));
+        callExecutor.schedule(pollRunnable, intervalMs);
+    }
+
+    private void process(RTCStatsReport report) {
+        Map<String, RTCStats> statsMap = report.getStatsMap();
+
+        double connectionRttMs = -1;
+        remoteInboundByLocalId.clear();
+        for (RTCStats stats : statsMap.values()) {
+            Map<String, Object> members = stats.getMembers();
+            if ("candidate-pair".equals(stats.getType())
+                    && Boolean.TRUE.equals(members.get("nominated"))
+                    && "succeeded".equals(members.get("state"))) {
+                connectionRttMs = secondsToMs(members.get("currentRoundTripTime"));
+            } else if ("remote-inbound-rtp".equals(stats.getType()) && members.get("localId") != null) {
+                remoteInboundByLocalId.put((String) members.get("localId"), stats);
+            }
+        }
+
+        for (RTCStats stats : statsMap.values()) {
+            boolean outbound = "outbound-rtp".equals(stats.getType());
+            if (!outbound && !"inbound-rtp".equals(stats.getType())) {
+                continue;
+            }
+            Map<String, Object> members = stats.getMembers();
+            RTCStats track = statsMap.get((String) members.get("trackId"));
+            if (track == null || !trackIds.contains((String) track.getMembers().get("trackIdentifier"))) {
+                continue;
+            }
+
+            sample.clear();
+            sample.trackId = (String) track.getMembers().get("trackIdentifier");
+            sample.outbound = outbound;
+            sample.timestampMs = (long) (stats.getTimestampUs() / 1000);
+            computeRates(stats, outbound);
+            sample.framesDropped = asLong(track.getMembers().get("framesDropped"), -1);
+
+            if (outbound) {
+                sample.qualityLimitationReason = (String) members.get("qualityLimitationReason");
+                RTCStats remoteInbound = remoteInboundByLocalId.get(stats.getId());
+                if (remoteInbound != null) {
+                    Map<String, Object> remoteMembers = remoteInbound.getMembers();
+                    sample.roundTripTimeMs = secondsToMs(remoteMembers.get("roundTripTime"));
+                    sample.jitterMs = secondsToMs(remoteMembers.get("jitter"));
+                    sample.packetsLost = asLong(remoteMembers.get("packetsLost"), -1);
+                }
+            } else {
+                sample.jitterMs = secondsToMs(members.get("jitter"));
+                sample.packetsLost = asLong(members.get("packetsLost"), -1);
+            }
+            if (sample.roundTripTimeMs < 0) {
+                sample.roundTripTimeMs = connectionRttMs;
+            }
+
+            ring.record(sample);
+        }
+    }
+
+    private void computeRates(RTCStats stats, boolean outbound) {
+        Map<String, Object> members = stats.getMembers();
+        long bytes = asLong(members.get(outbound ? "bytesSent" : "bytesReceived"), 0);
+        // Only video streams count frames.
+        Object framesMember = members.get(outbound ? "framesEncoded" : "framesDecoded");
+        long frames = asLong(framesMember, 0);
+
+        Counters counters = previousCounters.get(stats.getId());
+        if (counters == null) {
+            counters = new Counters();
+            previousCounters.put(stats.getId(), counters);
+        } else {
+            double elapsedSeconds = (stats.getTimestampUs() - counters.timestampUs) / 1_000_000.0;
+            if (elapsedSeconds > 0) {
+                sample.bitrateBps = (long) ((bytes - counters.bytes) * 8 / elapsedSeconds);
+                if (framesMember != null) {
+                    sample.framesPerSecond = (frames - counters.frames) / elapsedSeconds;
+                }
+            }
+        }
+        counters.timestampUs = stats.getTimestampUs();
+        counters.bytes = bytes;
+        counters.frames = frames;
+    }
+
+    private static long asLong(Object value, long defaultValue) {
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    private static double secondsToMs(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() * 1000 : -1;
+    }
+
+    private static class Counters {
+        double timestampUs;
+        long bytes;
+        long frames;
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.forlayo.webrtc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed size binary layout for touch events sent over the "backcontrol" DataChannel, moves over
+ * "pointer" (see {@link DataChannelRoute}).
+ * <p>
+ * Every message is {@link #TOUCH_MESSAGE_SIZE} bytes, big endian:
+ * <pre>
+ * 0       type        byte, always {@link #TYPE_TOUCH}
+ * 1       action      byte, MotionEvent masked action
+ * 2       pointer id  byte
+ * 3       after       byte, on moves 0x80 | low 7 bits of the sequence of the last other action
+ *                     sent before it, 0 when unknown (older senders)
+ * 4..7    sequence    int, incremented by the sender for every message sent
+ * 8..11   x           float, normalized 0..1 over the view width
+ * 12..15  y           float, normalized 0..1 over the view height
+ * 16..23  event time  long, sender uptime in milliseconds
+ * </pre>
+ * Moves and the rest travel on different channels, after is what lets a receiver hold a move until
+ * the DOWN sent before it has arrived.
+ * <p>
+ * Reading is done with absolute gets relative to the buffer position, so decoding never allocates.
+ */
+final class TouchEventCodec {
+
+    static final byte TYPE_TOUCH = 0x01;
+    static final int TOUCH_MESSAGE_SIZE = 24;
+    static final int AFTER_UNKNOWN = -1;
+
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_ACTION = 1;
+    private static final int OFFSET_POINTER_ID = 2;
+    private static final int OFFSET_AFTER = 3;
+    private static final int OFFSET_SEQUENCE = 4;
+    private static final int OFFSET_X = 8;
+    private static final int OFFSET_Y = 12;
+    private static final int OFFSET_EVENT_TIME = 16;
+
+    private TouchEventCodec() {
+    }
+
+    /**
+     * Creates a direct buffer sized for one touch message, meant to be reused for every send.
+     */
+    static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(TOUCH_MESSAGE_SIZE).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Writes a touch message at the start of out, leaving it ready to be sent (position 0, limit size).
+     */
+    static void encode(ByteBuffer out, int action, int pointerId, int sequence, float x, float y, long eventTime) {
+        encode(out, action, pointerId, sequence, x, y, eventTime, AFTER_UNKNOWN);
+    }
+
+    /**
+     * As {@link #encode(ByteBuffer, int, int, int, float, float, long)}, after being the sequence of the
+     * last non move message sent, or {@link #AFTER_UNKNOWN}.
+     */
+    static void encode(ByteBuffer out, int action, int pointerId, int sequence, float x, float y, long eventTime,
+                       int after) {
+        out.clear();
+        out.put(OFFSET_TYPE, TYPE_TOUCH);
+        out.put(OFFSET_ACTION, (byte) action);
+        out.put(OFFSET_POINTER_ID, (byte) pointerId);
+        out.put(OFFSET_AFTER, after == AFTER_UNKNOWN ? 0 : (byte) (0x80 | (after & 0x7F)));
+        out.putInt(OFFSET_SEQUENCE, sequence);
+        out.putFloat(OFFSET_X, x);
+        out.putFloat(OFFSET_Y, y);
+        out.putLong(OFFSET_EVENT_TIME, eventTime);
+        out.limit(TOUCH_MESSAGE_SIZE);
+    }
+
+    static boolean isTouch(ByteBuffer in) {
+        return in.remaining() >= TOUCH_MESSAGE_SIZE && in.get(in.position() + OFFSET_TYPE) == TYPE_TOUCH;
+    }
+
+    static int action(ByteBuffer in) {
+        return in.get(in.position() + OFFSET_ACTION);
+    }
+
+    static int pointerId(ByteBuffer in) {
+        return in.get(in.position() + OFFSET_POINTER_ID);
+    }
+
+    static int sequence(ByteBuffer in) {
+        return in.getInt(in.position() + OFFSET_SEQUENCE);
+    }
+
+    /**
+     * @return low 7 bits of the sequence the message was sent after, or {@link #AFTER_UNKNOWN}.
+     */
+    static int after(ByteBuffer in) {
+        int after = in.get(in.position() + OFFSET_AFTER);
+        return (after & 0x80) == 0 ? AFTER_UNKNOWN : after & 0x7F;
+    }
+
+    static float x(ByteBuffer in) {
+        return in.getFloat(in.position() + OFFSET_X);
+    }
+
+    static float y(ByteBuffer in) {
+        return in.getFloat(in.position() + OFFSET_Y);
+    }
+
+    static long eventTime(ByteBuffer in) {
+        return in.getLong(in.position() + OFFSET_EVENT_TIME);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.forlayo.webrtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded history of {@link TrackStatsSample}, every slot is allocated up front and overwritten
+ * once full. Written from the call thread, snapshots can be taken from any thread.
+ */
+final class TrackStatsRing {
+
+    private final TrackStatsSample[] samples;
+    private int next;
+    private int size;
+
+    TrackStatsRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        samples = new TrackStatsSample[capacity];
+        for (int i = 0; i < capacity; i++) {
+            samples[i] = new TrackStatsSample();
+        }
+    }
+
+    synchronized void record(TrackStatsSample sample) {
+        samples[next].copyFrom(sample);
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Copies of the stored samples, oldest first.
+     */
+    synchronized List<TrackStatsSample> snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Copies of the stored samples of one track, oldest first, all of them for a null id.
+     */
+    synchronized List<TrackStatsSample> snapshot(String trackId) {
+        List<TrackStatsSample> copy = new ArrayList<>(size);
+        int first = (next - size + samples.length) % samples.length;
+        for (int i = 0; i < size; i++) {
+            TrackStatsSample sample = samples[(first + i) % samples.length];
+            if (trackId == null || trackId.equals(sample.trackId)) {
+                TrackStatsSample sampleCopy = new TrackStatsSample();
+                sampleCopy.copyFrom(sample);
+                copy.add(sampleCopy);
+            }
+        }
+        return copy;
+    }
+
+    synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.forlayo.webrtc;
+
+import lombok.Getter;
+
+/**
+ * Metrics of one track in one direction at one point in time, as extracted by {@link StatsSampler}.
+ * Values not reported by the stats of that direction are left at -1 (or null).
+ */
+@Getter
+public final class TrackStatsSample {
+
+    String trackId;
+    boolean outbound;
+    long timestampMs;
+    long bitrateBps;
+    double framesPerSecond;
+    long framesDropped;
+    double roundTripTimeMs;
+    double jitterMs;
+    long packetsLost;
+    String qualityLimitationReason;
+
+    TrackStatsSample() {
+        clear();
+    }
+
+    void clear() {
+        trackId = null;
+        outbound = false;
+        timestampMs = 0;
+        bitrateBps = -1;
+        framesPerSecond = -1;
+        framesDropped = -1;
+        roundTripTimeMs = -1;
+        jitterMs = -1;
+        packetsLost = -1;
+        qualityLimitationReason = null;
+    }
+
+    void copyFrom(TrackStatsSample other) {
+        trackId = other.trackId;
+        outbound = other.outbound;
+        timestampMs = other.timestampMs;
+        bitrateBps = other.bitrateBps;
+        framesPerSecond = other.framesPerSecond;
+        framesDropped = other.framesDropped;
+        roundTripTimeMs = other.roundTripTimeMs;
+        jitterMs = other.jitterMs;
+        packetsLost = other.packetsLost;
+        qualityLimitationReason = other.qualityLimitationReason;
+    }
+
+    @Override
+    public String toString() {
+        return (outbound ? "out " : "in ") + trackId
+                + " t=" + timestampMs
+                + " bitrate=" + bitrateBps
+                + " fps=" + framesPerSecond
+                + " dropped=" + framesDropped
+                + " rtt=" + roundTripTimeMs
+                + " jitter=" + jitterMs
+                + " lost=" + packetsLost
+                + " limitation=" + qualityLimitationReason;
+    }
+
+}
@@ -1,14 +1,14 @@
 package com.forlayo.webrtc;
 
-import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.Intent;
 import android.media.projection.MediaProjection;
-import android.os.Handler;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.MotionEvent;
-import android.view.View;
+import android.view.WindowManager;
 import android.widget.Toast;
 
 import org.webrtc.AudioSource;
@@ -16,9 +16,9 @@ import org.webrtc.AudioTrack;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
+import org.webrtc.CameraVideoCapturer;
+import org.webrtc.CapturerObserver;
 import org.webrtc.DataChannel;
-import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.MediaConstraints;
@@ -26,24 +26,25 @@ import org.webrtc.MediaStream;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.RendererCommon;
+import org.webrtc.RtpParameters;
+import org.webrtc.RtpSender;
 import org.webrtc.ScreenCapturerAndroid;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
 import org.webrtc.SurfaceTextureHelper;
 import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoFrame;
-import org.webrtc.VideoSink;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
-import org.webrtc.audio.AudioDeviceModule;
-import org.webrtc.audio.JavaAudioDeviceModule;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 1.- Get the intent of screen capture permission.
@@ -55,13 +56,65 @@ import java.util.List;
 public class WebRTCCall implements IWebRTCCall {
 
     private static final String TAG = WebRTCCall.class.getCanonicalName();
+    // Bandwidth ceilings written in local descriptions, see BitrateCapTransform.
+    private static final int SCREEN_MAX_KBPS = 1500;
+    private static final int CAMERA_MAX_KBPS = 500;
+    private static final int AUDIO_MAX_KBPS = 64;
+    private static final String LOCAL_STREAM_ID = "RemoteSupport";
+    // Still screens are sent at 1 fps, full rate goes on for a while after every change.
+    private static final long SCREEN_KEEP_ALIVE_MS = 1000;
+    private static final long SCREEN_SETTLE_MS = 1500;
+    // 2 minutes of history for 3 tracks in both directions.
+    private static final long STATS_INTERVAL_MS = 2000;
+    private static final int STATS_CAPACITY = 60 * 3 * 2;
+    // Under the cache dir, received files and the parts of unfinished ones.
+    private static final String TRANSFERS_DIRECTORY = "transfers";
     private final ProxyVideoSink remoteCameraProxyRenderer = new ProxyVideoSink();
     private final ProxyVideoSink remoteScreenProxyRenderer = new ProxyVideoSink();
     private final ProxyVideoSink localProxyVideoSink = new ProxyVideoSink();
+    private final DataChannelRouter dataChannelRouter = new DataChannelRouter();
+    private final RemoteTouchSender remoteTouchSender = new RemoteTouchSender(dataChannelRouter);
+    private final DataChannelMessageDispatcher messageDispatcher = new DataChannelMessageDispatcher();
+    private final CallExecutor callExecutor = new CallExecutor("WebRTCCall");
+    private final RemoteInputDispatcher remoteInput = new RemoteInputDispatcher(callExecutor, this::onRemoteTouch);
+    private final AtomicReference<String> pendingText = new AtomicReference<>();
+    private volatile RemoteInputListener remoteInputListener;
+    private final StatsSampler statsSampler = new StatsSampler(callExecutor, STATS_INTERVAL_MS, STATS_CAPACITY,
+            "screen", "camera", "camera-audio");
     private VideoBundle screenVideoBundle;
     private VideoBundle cameraVideoBundle;
-    private EglBase rootEglBase;
+    private CaptureProfile screenCaptureProfile = CaptureProfile.SCREEN;
+    private CaptureProfile cameraCaptureProfile = CaptureProfile.CAMERA;
+    private List<EncodingLayer> screenLayers = EncodingLayer.SCREEN_LAYERS;
+    private List<EncodingLayer> cameraLayers = EncodingLayer.CAMERA_LAYERS;
+    private final MediaEngine mediaEngine;
     private PeerConnectionFactory factory;
+    private CallTimeline timeline;
+    private IceRestartPolicy iceRestartPolicy = IceRestartPolicy.DEFAULT;
+    private final Runnable iceRecoveryRunnable = this::onIceRecoveryTick;
+    private boolean offerer;
+    private String sessionId;
+    // Same session offer received while answering another one, set once STABLE again.
+    private SdpSignaling pendingReOffer;
+    // Offers and answers leave the signaling queue on its thread, SIGNALING_SENT is marked then.
+    private final ISignaling.SendCallback descriptionSendCallback = new ISignaling.SendCallback() {
+        @Override
+        public void onSent(SdpSignaling cmd) {
+            final long sentNanos = System.nanoTime();
+            callExecutor.execute(() -> {
+                if (timeline != null && cmd.getSessionId() != null && cmd.getSessionId().equals(sessionId)) {
+                    timeline.mark(CallTimeline.Phase.SIGNALING_SENT, sentNanos);
+                }
+            });
+        }
+
+        @Override
+        public void onDropped(SdpSignaling cmd, String reason) {
+            Log.w(TAG, "Signaling " + cmd.getType() + " of session " + cmd.getSessionId() + " dropped, " + reason);
+        }
+    };
+    private long iceLostSinceMs;
+    private int iceRestarts;
     private SurfaceViewRenderer localVideoView;
     private SurfaceViewRenderer remoteCameraVideoView;
     private SurfaceViewRenderer remoteScreenVideoView;
@@ -71,11 +124,16 @@ public class WebRTCCall implements IWebRTCCall {
     private AudioTrack localAudioTrack;
     private PeerConnection peerConnection;
     private DataChannel dataChannel;
+    private DataChannel pointerChannel;
+    private final FileTransferChannel fileTransfer;
     private DataChannel.Observer dataChannelObserver;
+    private DataChannel.Observer pointerChannelObserver;
     private List<PeerConnection.IceServer> peerIceServers = new ArrayList<>();
-    private List<IceCandidate> queuedRemoteCandidates;
+    private final RemoteCandidateQueue<IceCandidate> queuedRemoteCandidates = new RemoteCandidateQueue<>();
     private WeakReference<Context> ctxWeak;
     private ISignaling signaling;
+    private IceCandidateBatcher candidateBatcher;
+    private SdpMunger sdpMunger;
     private Intent mediaProjectionPermissionResultData;
     private SdpSignaling callWaitingForPermission;
     /**
@@ -98,61 +156,95 @@ public class WebRTCCall implements IWebRTCCall {
         );
 
         this.signaling = signaling;
+        this.candidateBatcher = new IceCandidateBatcher(callExecutor, signaling);
+        this.sdpMunger = new SdpMunger()
+                .add(new PreferCodecTransform("video", "H264"))
+                // Plan B: one video section for both, capped at their sum.
+                .add(new BitrateCapTransform()
+                        .capTrack("screen", SCREEN_MAX_KBPS)
+                        .capTrack("camera", CAMERA_MAX_KBPS)
+                        .capKind("audio", AUDIO_MAX_KBPS));
         this.ctxWeak = new WeakReference<>(context);
+        this.fileTransfer = new FileTransferChannel(new File(context.getCacheDir(), TRANSFERS_DIRECTORY));
+        this.mediaEngine = new MediaEngine(context.getApplicationContext());
 
         this.localVideoView = localCamera;
         this.remoteCameraVideoView = remoteCamera;
         this.remoteScreenVideoView = remoteScreen;
 
+        registerMessageHandlers();
     }
 
     /**
-     * Resets all WebRTC objects and creates PeerConnection.
+     * Handlers run on the WebRTC signaling thread, only the ones showing something hop to the UI.
      */
-    @SuppressLint("ClickableViewAccessibility")
-    private void initWebRTC() {
-
-        Log.d(TAG, "initWebRTC()");
+    private void registerMessageHandlers() {
+        messageDispatcher.registerBinaryHandler(TouchEventCodec.TYPE_TOUCH, remoteInput);
 
-        hang(); // Being sure not already initialized or in a call.
-
-        rootEglBase = EglBase.create();
-
-        localVideoView.init(rootEglBase.getEglBaseContext(), null);
-        remoteCameraVideoView.init(rootEglBase.getEglBaseContext(), null);
-        remoteScreenVideoView.init(rootEglBase.getEglBaseContext(), null);
+        messageDispatcher.registerBinaryHandler(LayerSelectionCodec.TYPE_LAYER_SELECTION, data -> {
+            if (!LayerSelectionCodec.isLayerSelection(data)) {
+                return;
+            }
+            final String trackId = LayerSelectionCodec.trackId(data);
+            final int layer = LayerSelectionCodec.layer(data);
+            callExecutor.execute(() -> onLayerSelected(trackId, layer));
+        });
 
-        PeerConnectionFactory.InitializationOptions initializationOptions =
-                PeerConnectionFactory.InitializationOptions.builder(ctxWeak.get().getApplicationContext())
-                        .createInitializationOptions();
-        PeerConnectionFactory.initialize(initializationOptions);
+        // At most one toast waiting for the UI, newer text replaces what it hasn't shown yet.
+        messageDispatcher.registerTextHandler(text -> {
+            if (pendingText.getAndSet(text.toString()) == null) {
+                runOnUiThread(() -> Toast.makeText(ctxWeak.get(), pendingText.getAndSet(null), Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
 
+    /**
+     * WebRTC signaling thread. A failing handler must not reach the native callback.
+     */
+    private void dispatchMessage(DataChannel.Buffer buffer) {
+        try {
+            messageDispatcher.dispatch(buffer.data, buffer.binary);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception handling DataChannel message", e);
+        }
+    }
 
-        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-        DefaultVideoEncoderFactory defaultVideoEncoderFactory = new DefaultVideoEncoderFactory(
-                rootEglBase.getEglBaseContext(), true, true);
+    /**
+     * UI thread, from {@link RemoteInputDispatcher}. Without a listener downs are shown as before.
+     */
+    private void onRemoteTouch(int action, int pointerId, float x, float y) {
+        RemoteInputListener listener = remoteInputListener;
+        if (listener != null) {
+            listener.onRemoteTouch(action, pointerId, x, y);
+        } else if (action == MotionEvent.ACTION_DOWN) {
+            Toast.makeText(ctxWeak.get(), "Touch at X:" + x + " Y:" + y, Toast.LENGTH_SHORT).show();
+        }
+    }
 
-        DefaultVideoDecoderFactory defaultVideoDecoderFactory = new DefaultVideoDecoderFactory(
-                rootEglBase.getEglBaseContext());
+    /**
+     * Resets all WebRTC objects and creates PeerConnection. Call thread only.
+     */
+    private void initWebRTC(String role) {
 
-        final AudioDeviceModule audioDeviceModule = JavaAudioDeviceModule.builder(ctxWeak.get())
-                .setUseHardwareAcousticEchoCanceler(true)
-                .setUseHardwareNoiseSuppressor(true)
-                .createAudioDeviceModule();
+        Log.d(TAG, "initWebRTC() " + role);
 
-        factory =
-                PeerConnectionFactory.builder()
-                        .setOptions(options)
-                        .setAudioDeviceModule(audioDeviceModule)
-                        .setVideoDecoderFactory(defaultVideoDecoderFactory)
-                        .setVideoEncoderFactory(defaultVideoEncoderFactory)
-                        .createPeerConnectionFactory();
+        closeCall(); // Being sure not already initialized or in a call.
 
-        // Not sure why, but this is the way to proceed.
-        audioDeviceModule.release();
+        // Set up time is measured from here, a warm engine skips all native initialization.
+        long startNanos = System.nanoTime();
+        boolean coldStart = mediaEngine.start();
+        if (coldStart) {
+            initViews(mediaEngine.getEglBaseContext());
+        }
+        timeline = new CallTimeline(role, !coldStart, startNanos);
+        offerer = "caller".equals(role);
+        timeline.mark(CallTimeline.Phase.ENGINE_READY);
+        factory = mediaEngine.getFactory();
 
         screenVideoBundle = new VideoBundle();
         screenVideoBundle.name = "screen";
+        screenVideoBundle.captureProfile = fitToDisplay(screenCaptureProfile);
+        screenVideoBundle.setLayers(screenLayers);
         screenVideoBundle.videoCapturer = createScreenCapturer();
         if (screenVideoBundle.videoCapturer != null) {
             screenVideoBundle.localVideoTrack = createVideoTrack(
@@ -164,6 +256,8 @@ public class WebRTCCall implements IWebRTCCall {
 
         cameraVideoBundle = new VideoBundle();
         cameraVideoBundle.name = "camera";
+        cameraVideoBundle.captureProfile = cameraCaptureProfile;
+        cameraVideoBundle.setLayers(cameraLayers);
         cameraVideoBundle.videoCapturer = createCameraCapturer(ctxWeak.get());
         if (cameraVideoBundle.videoCapturer != null) {
             cameraVideoBundle.localVideoTrack = createVideoTrack(
@@ -178,33 +272,10 @@ public class WebRTCCall implements IWebRTCCall {
         sdpConstraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
         sdpConstraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "true"));
 
-        localVideoView.setZOrderMediaOverlay(true); // Otherwise remote video will overlay local one.
-        localVideoView.setEnableHardwareScaler(true);
-        localVideoView.setMirror(true);
         localProxyVideoSink.setTarget(localVideoView);
         if (cameraVideoBundle.localVideoTrack != null)
             cameraVideoBundle.localVideoTrack.addSink(localProxyVideoSink);
 
-        remoteCameraVideoView.setEnableHardwareScaler(true);
-
-        remoteScreenVideoView.setEnableHardwareScaler(false);
-        remoteScreenVideoView.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT);
-
-        remoteScreenVideoView.setOnTouchListener(new View.OnTouchListener() {
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                Log.d(TAG, "onTouch() Event:" + event.getAction() + " X:" + event.getX() + " Y:" + event.getY());
-
-                if(dataChannel!=null) {
-                    String touchStr = "Touch at  X:" + event.getX() + " Y:" + event.getY();
-                    ByteBuffer buffer = ByteBuffer.wrap(touchStr.getBytes());
-                    dataChannel.send(new DataChannel.Buffer(buffer, false));
-                }
-
-                return false;
-            }
-        });
-
         dataChannelObserver = new DataChannel.Observer() {
 
             @Override
@@ -225,29 +296,72 @@ public class WebRTCCall implements IWebRTCCall {
 
             @Override
             public void onMessage(DataChannel.Buffer buffer) {
-                if (buffer.binary) {
-                    Log.d(TAG, "Received binary msg over " + dataChannel);
-                    return;
-                }
-                try {
-                    ByteBuffer data = buffer.data;
-                    final byte[] bytes = new byte[data.capacity()];
-                    data.get(bytes);
-                    String strData = new String(bytes, Charset.forName("UTF-8"));
-                    Log.d(TAG, "Got msg: " + strData + " over " + dataChannel);
-
-                    runOnUiThread(() -> {
-                        Toast.makeText(ctxWeak.get(), strData, Toast.LENGTH_SHORT).show();
-                    });
-                }catch (Exception ex){
-                    /*Who cares*/
-                }
+                dispatchMessage(buffer);
+            }
+        };
+
+        pointerChannelObserver = new DataChannel.Observer() {
+
+            @Override
+            public void onBufferedAmountChange(long l) {
+            }
+
+            @Override
+            public void onStateChange() {
+                if (pointerChannel != null)
+                    Log.d(TAG, "onStateChange(): " + pointerChannel.label() + ": " + pointerChannel.state());
+            }
+
+            @Override
+            public void onMessage(DataChannel.Buffer buffer) {
+                dispatchMessage(buffer);
             }
         };
 
         createPeerConnection();
     }
 
+    /**
+     * Views must be touched from the UI thread, renderers drop frames until they're initialized.
+     */
+    private void initViews(EglBase.Context eglBaseContext) {
+        runOnUiThread(() -> {
+            localVideoView.init(eglBaseContext, null);
+            remoteCameraVideoView.init(eglBaseContext, null);
+            remoteScreenVideoView.init(eglBaseContext, null);
+
+            localVideoView.setZOrderMediaOverlay(true); // Otherwise remote video will overlay local one.
+            localVideoView.setEnableHardwareScaler(true);
+            localVideoView.setMirror(true);
+
+            remoteCameraVideoView.setEnableHardwareScaler(true);
+
+            remoteScreenVideoView.setEnableHardwareScaler(false);
+            remoteScreenVideoView.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT);
+
+            remoteScreenVideoView.setOnTouchListener(remoteTouchSender);
+        });
+    }
+
+    /**
+     * Views stay initialized between calls, only the last frame is cleared.
+     */
+    private void clearViews() {
+        runOnUiThread(() -> {
+            remoteCameraVideoView.clearImage();
+            remoteScreenVideoView.clearImage();
+            localVideoView.clearImage();
+        });
+    }
+
+    private void releaseViews() {
+        runOnUiThread(() -> {
+            remoteCameraVideoView.release();
+            remoteScreenVideoView.release();
+            localVideoView.release();
+        });
+    }
+
     private AudioTrack createAudioTrack() {
         audioSource = factory.createAudioSource(audioConstraints);
         localAudioTrack = factory.createAudioTrack("camera-audio", audioSource);
@@ -256,16 +370,117 @@ public class WebRTCCall implements IWebRTCCall {
     }
 
     private VideoTrack createVideoTrack(Context appContext, VideoBundle bundle) {
-        bundle.surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", rootEglBase.getEglBaseContext());
-        bundle.videoSource = factory.createVideoSource(bundle.videoCapturer.isScreencast());
-        bundle.videoCapturer.initialize(bundle.surfaceTextureHelper, appContext, bundle.videoSource.getCapturerObserver());
-        bundle.videoCapturer.startCapture(1280, 720, 30);
+        bundle.surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", mediaEngine.getEglBaseContext());
+        CaptureProfile profile = bundle.captureProfile;
+        Log.d(TAG, "createVideoTrack() " + bundle.name + " " + profile);
+        // Content type is fixed at creation, it's what sets the source degradation preference.
+        bundle.videoSource = factory.createVideoSource(profile.isScreencast());
+        CapturerObserver capturerObserver = bundle.videoSource.getCapturerObserver();
+        if (profile.isScreencast()) {
+            bundle.staticContentFilter = new StaticContentFilter(capturerObserver, SCREEN_KEEP_ALIVE_MS, SCREEN_SETTLE_MS);
+            capturerObserver = bundle.staticContentFilter;
+        }
+        bundle.videoCapturer.initialize(bundle.surfaceTextureHelper, appContext, capturerObserver);
+        bundle.videoCapturer.startCapture(profile.getWidth(), profile.getHeight(), profile.getFps());
+        adaptOutputFormat(bundle);
 
         bundle.localVideoTrack = factory.createVideoTrack(bundle.name, bundle.videoSource);
         bundle.localVideoTrack.setEnabled(true);
         return bundle.localVideoTrack;
     }
 
+    /**
+     * Screen capture keeps the display aspect ratio, the profile only bounds its size.
+     */
+    private CaptureProfile fitToDisplay(CaptureProfile profile) {
+        WindowManager windowManager = (WindowManager) ctxWeak.get().getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager == null) {
+            return profile;
+        }
+        DisplayMetrics metrics = new DisplayMetrics();
+        windowManager.getDefaultDisplay().getRealMetrics(metrics);
+        return profile.fitTo(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    /**
+     * Switches the capture format of a running track, the PeerConnection is untouched. Call thread only.
+     */
+    private void applyCaptureProfile(VideoBundle bundle, CaptureProfile profile) {
+        if (peerConnection == null || bundle == null || bundle.videoCapturer == null || bundle.videoSource == null) {
+            return;
+        }
+        if (bundle.captureProfile.getDegradationPreference() != profile.getDegradationPreference()) {
+            Log.w(TAG, "applyCaptureProfile() " + bundle.name + " degradation preference applies from next call on");
+        }
+        Log.d(TAG, "applyCaptureProfile() " + bundle.name + " " + bundle.captureProfile + " -> " + profile);
+        bundle.videoCapturer.changeCaptureFormat(profile.getWidth(), profile.getHeight(), profile.getFps());
+        bundle.captureProfile = profile;
+        adaptOutputFormat(bundle);
+    }
+
+    /**
+     * Source output is the capture profile scaled down by the current layer.
+     */
+    private void adaptOutputFormat(VideoBundle bundle) {
+        CaptureProfile output = bundle.getLayer().scale(bundle.captureProfile);
+        bundle.videoSource.adaptOutputFormat(output.getWidth(), output.getHeight(), output.getFps());
+    }
+
+    /**
+     * Sends the current layer of a track: source output size and encoder bitrate cap through the
+     * RtpSender parameters, no renegotiation. Call thread only.
+     */
+    private void applyEncodingLayer(VideoBundle bundle) {
+        if (peerConnection == null || bundle == null || bundle.videoSource == null) {
+            return;
+        }
+        EncodingLayer layer = bundle.getLayer();
+        Log.d(TAG, "applyEncodingLayer() " + bundle.name + " layer " + bundle.layerIndex + " " + layer);
+        adaptOutputFormat(bundle);
+
+        RtpSender sender = bundle.sender;
+        if (sender == null) {
+            Log.w(TAG, "applyEncodingLayer() no sender for " + bundle.name + " yet");
+            return;
+        }
+        RtpParameters parameters = sender.getParameters();
+        for (RtpParameters.Encoding encoding : parameters.encodings) {
+            encoding.maxBitrateBps = layer.getMaxBitrateKbps() * 1000;
+        }
+        if (!sender.setParameters(parameters)) {
+            Log.w(TAG, "applyEncodingLayer() " + bundle.name + " parameters not applied");
+        }
+    }
+
+    private void applyEncodingLayers() {
+        applyEncodingLayer(screenVideoBundle);
+        applyEncodingLayer(cameraVideoBundle);
+    }
+
+    private VideoBundle findBundle(String trackId) {
+        if (screenVideoBundle != null && screenVideoBundle.name.equals(trackId)) {
+            return screenVideoBundle;
+        }
+        if (cameraVideoBundle != null && cameraVideoBundle.name.equals(trackId)) {
+            return cameraVideoBundle;
+        }
+        return null;
+    }
+
+    private void onLayerSelected(String trackId, int layerIndex) {
+        VideoBundle bundle = findBundle(trackId);
+        if (bundle == null || bundle.layers == null) {
+            Log.w(TAG, "onLayerSelected() unknown track " + trackId);
+            return;
+        }
+        int clamped = Math.min(layerIndex, bundle.layers.size() - 1);
+        if (clamped == bundle.layerIndex) {
+            return;
+        }
+        bundle.layerIndex = clamped;
+        applyEncodingLayer(bundle);
+    }
+
     private void createDataChannel() {
         if (peerConnection != null) {
             DataChannel.Init init = new DataChannel.Init();
@@ -274,8 +489,23 @@ public class WebRTCCall implements IWebRTCCall {
             init.maxRetransmitTimeMs = -1;
             init.id = -1;
 
-            dataChannel = peerConnection.createDataChannel("backcontrol", init);
+            dataChannel = peerConnection.createDataChannel(DataChannelRouter.LABEL_CONTROL, init);
             dataChannel.registerObserver(dataChannelObserver);
+            dataChannelRouter.setControlChannel(dataChannel);
+
+            // Pointer moves: a lost one is replaced by the next a frame later, retransmitting it would
+            // only hold the newer ones behind it.
+            DataChannel.Init pointerInit = new DataChannel.Init();
+            pointerInit.ordered = false;
+            pointerInit.maxRetransmits = 0;
+            pointerInit.maxRetransmitTimeMs = -1;
+            pointerInit.id = -1;
+            pointerChannel = peerConnection.createDataChannel(DataChannelRouter.LABEL_POINTER, pointerInit);
+            pointerChannel.registerObserver(pointerChannelObserver);
+            dataChannelRouter.setPointerChannel(pointerChannel);
+
+            // Same reliability, but its own SCTP stream and queue, so files never hold back controls.
+            fileTransfer.setDataChannel(peerConnection.createDataChannel(FileTransferChannel.LABEL, init));
         }
     }
 
@@ -296,13 +526,21 @@ public class WebRTCCall implements IWebRTCCall {
             @Override
             public void onIceCandidate(IceCandidate iceCandidate) {
                 super.onIceCandidate(iceCandidate);
-                onIceCandidateReceived(iceCandidate);
+                callExecutor.execute(() -> onIceCandidateReceived(iceCandidate));
+            }
+
+            @Override
+            public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
+                super.onIceGatheringChange(iceGatheringState);
+                if (iceGatheringState == PeerConnection.IceGatheringState.COMPLETE) {
+                    callExecutor.execute(() -> candidateBatcher.flush());
+                }
             }
 
             @Override
             public void onAddStream(MediaStream mediaStream) {
                 super.onAddStream(mediaStream);
-                gotRemoteStream(mediaStream);
+                callExecutor.execute(() -> gotRemoteStream(mediaStream));
             }
 
             @Override
@@ -317,27 +555,40 @@ public class WebRTCCall implements IWebRTCCall {
                     // This is like your status, don't expect on using this like connection lost or so.
 
                 } else if (newState == PeerConnection.PeerConnectionState.FAILED) {
-                    Log.e(TAG, "DTLS connection failed.");
-                    hang();
+                    // Also reported when ICE fails, that case is left to ICE recovery.
+                    callExecutor.execute(() -> {
+                        if (iceLostSinceMs == 0) {
+                            Log.e(TAG, "DTLS connection failed.");
+                            closeCall();
+                        }
+                    });
                 }
 
             }
 
+            @Override
+            public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+                super.onSignalingChange(signalingState);
+                if (signalingState == PeerConnection.SignalingState.STABLE) {
+                    callExecutor.execute(() -> onSignalingStable());
+                }
+            }
+
             @Override
             public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
                 super.onIceConnectionChange(iceConnectionState);
                 Log.d(TAG, "onIceConnectionChange: " + iceConnectionState);
 
-                // FAILED -> All channels are closed, connection lost or other party has closed the connection.
+                // DISCONNECTED -> Connectivity lost, may come back by itself or with an ICE restart.
+                // FAILED -> All candidate pairs failed, only an ICE restart can bring it back.
                 // CLOSED -> You've closed.
                 if (iceConnectionState == PeerConnection.IceConnectionState.FAILED ||
                         iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED) {
-                    runOnUiThread(() -> {
-                        Toast.makeText(ctxWeak.get(), ctxWeak.get().getString(R.string.support_toast_disconnected), Toast.LENGTH_SHORT).show();
-                        hang();
-                    });
+                    callExecutor.execute(() -> onIceLost(iceConnectionState == PeerConnection.IceConnectionState.FAILED));
 
                 } else if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED) {
+                    final long connectedNanos = System.nanoTime();
+                    callExecutor.execute(() -> onIceConnected(connectedNanos));
                     runOnUiThread(() -> Toast.makeText(ctxWeak.get(), ctxWeak.get().getString(R.string.support_toast_connected), Toast.LENGTH_SHORT).show());
                 }
             }
@@ -346,23 +597,160 @@ public class WebRTCCall implements IWebRTCCall {
             public void onDataChannel(DataChannel channel) {
                 super.onDataChannel(channel);
                 Log.d(TAG, "New Data channel " + channel.label());
-                dataChannel = channel;
-                dataChannel.registerObserver(dataChannelObserver);
+                callExecutor.execute(() -> {
+                    if (FileTransferChannel.LABEL.equals(channel.label())) {
+                        fileTransfer.setDataChannel(channel);
+                        return;
+                    }
+                    if (DataChannelRouter.LABEL_POINTER.equals(channel.label())) {
+                        pointerChannel = channel;
+                        pointerChannel.registerObserver(pointerChannelObserver);
+                        dataChannelRouter.setPointerChannel(pointerChannel);
+                        return;
+                    }
+                    dataChannel = channel;
+                    dataChannel.registerObserver(dataChannelObserver);
+                    dataChannelRouter.setControlChannel(dataChannel);
+                });
             }
         });
 
-        addStreamToLocalPeer();
+        addTracksToLocalPeer();
+        statsSampler.start(peerConnection);
+    }
+
+    /**
+     * Starts recovery on the first loss; a FAILED while waiting the grace period restarts right away.
+     */
+    private void onIceLost(boolean failed) {
+        if (peerConnection == null) {
+            return;
+        }
+        if (iceLostSinceMs == 0) {
+            iceLostSinceMs = SystemClock.elapsedRealtime();
+            iceRestarts = 0;
+            Log.w(TAG, "ICE connection lost, recovering: " + iceRestartPolicy);
+        } else if (!failed || iceRestarts > 0) {
+            return;
+        }
+        callExecutor.cancel(iceRecoveryRunnable);
+        callExecutor.schedule(iceRecoveryRunnable, failed ? 0 : iceRestartPolicy.getGracePeriodMs());
+    }
+
+    /**
+     * Only the side that made the session offer restarts ICE, the other one answers the restart offer.
+     * A restart is only offered from STABLE: while the previous offer is unanswered the tick waits for
+     * it, a second offer would get the answer of the first one. Both give up at the deadline.
+     */
+    private void onIceRecoveryTick() {
+        if (peerConnection == null || iceLostSinceMs == 0) {
+            return;
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - iceLostSinceMs;
+        if (iceRestartPolicy.isExpired(elapsedMs)) {
+            Log.e(TAG, "ICE not recovered after " + elapsedMs + " ms and " + iceRestarts + " restarts, closing the call");
+            closeCall();
+            runOnUiThread(() -> Toast.makeText(ctxWeak.get(), ctxWeak.get().getString(R.string.support_toast_disconnected), Toast.LENGTH_SHORT).show());
+            return;
+        }
+        if (offerer) {
+            if (peerConnection.signalingState() == PeerConnection.SignalingState.STABLE) {
+                iceRestarts++;
+                Log.w(TAG, "ICE restart #" + iceRestarts + " after " + elapsedMs + " ms");
+                restartIce();
+            } else {
+                Log.w(TAG, "ICE restart #" + iceRestarts + " still unanswered after " + elapsedMs + " ms");
+            }
+        }
+        callExecutor.schedule(iceRecoveryRunnable, offerer
+                ? iceRestartPolicy.nextDelayMs(iceRestarts, elapsedMs)
+                : iceRestartPolicy.getDeadlineMs() - elapsedMs);
     }
 
-    private void addStreamToLocalPeer() {
-        //creating local mediastream
-        MediaStream stream = factory.createLocalMediaStream("RemoteSupport");
-        stream.addTrack(screenVideoBundle.localVideoTrack);
+    private void stopIceRecovery() {
+        callExecutor.cancel(iceRecoveryRunnable);
+        iceLostSinceMs = 0;
+        iceRestarts = 0;
+    }
+
+    private void onIceConnected(long connectedNanos) {
+        if (iceLostSinceMs != 0) {
+            Log.i(TAG, "ICE recovered after " + (SystemClock.elapsedRealtime() - iceLostSinceMs) + " ms and "
+                    + iceRestarts + " restarts");
+            stopIceRecovery();
+        }
+        if (timeline == null || timeline.hasMark(CallTimeline.Phase.ICE_CONNECTED)) {
+            return;
+        }
+        timeline.mark(CallTimeline.Phase.ICE_CONNECTED, connectedNanos);
+        Log.i(TAG, "Time to connected: " + timeline.elapsedMs(CallTimeline.Phase.ICE_CONNECTED) + " ms");
+    }
+
+    private void onFirstRemoteFrame(CallTimeline frameTimeline, long frameNanos) {
+        // A frame of a previous call arriving late.
+        if (frameTimeline == timeline) {
+            timeline.mark(CallTimeline.Phase.FIRST_REMOTE_FRAME, frameNanos);
+        }
+    }
+
+    /**
+     * Every track gets its own RtpSender in the "RemoteSupport" stream, the other side still sees one
+     * stream in onAddStream. Senders are kept to switch sources without renegotiating.
+     */
+    private void addTracksToLocalPeer() {
+        List<String> streamIds = Collections.singletonList(LOCAL_STREAM_ID);
+        if (screenVideoBundle.localVideoTrack != null)
+            screenVideoBundle.sender = peerConnection.addTrack(screenVideoBundle.localVideoTrack, streamIds);
         if (cameraVideoBundle.localVideoTrack != null)
-            stream.addTrack(cameraVideoBundle.localVideoTrack);
+            cameraVideoBundle.sender = peerConnection.addTrack(cameraVideoBundle.localVideoTrack, streamIds);
         if (localAudioTrack != null)
-            stream.addTrack(localAudioTrack);
-        peerConnection.addStream(stream);
+            peerConnection.addTrack(localAudioTrack, streamIds);
+    }
+
+    /**
+     * Stops or resumes sending a video track. Stopped, the capturer is stopped and the sender is left
+     * without track so nothing is encoded; resuming puts the same track back. The negotiated SDP is the
+     * same in both cases, so there is no offer/answer. Call thread only.
+     */
+    private void setSending(VideoBundle bundle, boolean sending) {
+        if (peerConnection == null || bundle == null || bundle.sender == null || bundle.sending == sending) {
+            return;
+        }
+        Log.d(TAG, "setSending() " + bundle.name + " " + sending);
+        if (sending) {
+            CaptureProfile profile = bundle.captureProfile;
+            bundle.videoCapturer.startCapture(profile.getWidth(), profile.getHeight(), profile.getFps());
+            bundle.sender.setTrack(bundle.localVideoTrack, false);
+        } else {
+            bundle.sender.setTrack(null, false);
+            try {
+                bundle.videoCapturer.stopCapture();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        bundle.sending = sending;
+    }
+
+    private void onSwitchCamera() {
+        if (peerConnection == null || cameraVideoBundle == null
+                || !(cameraVideoBundle.videoCapturer instanceof CameraVideoCapturer)) {
+            Log.w(TAG, "switchCamera() no camera to switch");
+            return;
+        }
+        // Same capturer, source and track, the capturer reopens the other camera in place.
+        ((CameraVideoCapturer) cameraVideoBundle.videoCapturer).switchCamera(new CameraVideoCapturer.CameraSwitchHandler() {
+            @Override
+            public void onCameraSwitchDone(boolean isFrontCamera) {
+                Log.d(TAG, "switchCamera() done, front: " + isFrontCamera);
+                runOnUiThread(() -> localVideoView.setMirror(isFrontCamera));
+            }
+
+            @Override
+            public void onCameraSwitchError(String error) {
+                Log.e(TAG, "switchCamera() failed: " + error);
+            }
+        });
     }
 
     private void gotRemoteStream(MediaStream stream) {
@@ -372,31 +760,38 @@ public class WebRTCCall implements IWebRTCCall {
         for (VideoTrack videoTrack : stream.videoTracks) {
             Log.d(TAG, "videoTrack:" + videoTrack.id());
             if (videoTrack.id().equalsIgnoreCase(cameraVideoBundle.name)) {
-                runOnUiThread(() -> {
-                    try {
-                        videoTrack.addSink(remoteCameraProxyRenderer);
-                        remoteCameraProxyRenderer.setTarget(remoteCameraVideoView);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
+                try {
+                    videoTrack.addSink(remoteCameraProxyRenderer);
+                    remoteCameraProxyRenderer.setTarget(remoteCameraVideoView);
+                    remoteCameraProxyRenderer.setFirstFrameListener(firstFrameListener());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
 
             } else if (videoTrack.id().equalsIgnoreCase(screenVideoBundle.name)) {
-                runOnUiThread(() -> {
-                    try {
-                        videoTrack.addSink(remoteScreenProxyRenderer);
-                        remoteScreenProxyRenderer.setTarget(remoteScreenVideoView);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
+                try {
+                    videoTrack.addSink(remoteScreenProxyRenderer);
+                    remoteScreenProxyRenderer.setTarget(remoteScreenVideoView);
+                    remoteScreenProxyRenderer.setFirstFrameListener(firstFrameListener());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
         }
 
     }
 
+    private ProxyVideoSink.FirstFrameListener firstFrameListener() {
+        final CallTimeline frameTimeline = timeline;
+        return frameNanos -> callExecutor.execute(() -> onFirstRemoteFrame(frameTimeline, frameNanos));
+    }
+
     @Override
     public void setScreenCaptureProjectionData(Intent mediaProjectionData) {
+        callExecutor.execute(() -> onScreenCaptureProjectionData(mediaProjectionData));
+    }
+
+    private void onScreenCaptureProjectionData(Intent mediaProjectionData) {
         Log.d(TAG, "setScreenCaptureProjectionData()");
         this.mediaProjectionPermissionResultData = mediaProjectionData;
 
@@ -406,14 +801,106 @@ public class WebRTCCall implements IWebRTCCall {
         onOfferReceived(callWaitingForPermission);
     }
 
+    @Override
+    public void setScreenCaptureProfile(CaptureProfile profile) {
+        callExecutor.execute(() -> {
+            screenCaptureProfile = profile;
+            applyCaptureProfile(screenVideoBundle, fitToDisplay(profile));
+        });
+    }
+
+    @Override
+    public void setCameraCaptureProfile(CaptureProfile profile) {
+        callExecutor.execute(() -> {
+            cameraCaptureProfile = profile;
+            applyCaptureProfile(cameraVideoBundle, profile);
+        });
+    }
+
+    @Override
+    public void setScreenLayers(List<EncodingLayer> layers) {
+        callExecutor.execute(() -> {
+            screenLayers = layers;
+            if (screenVideoBundle != null) {
+                screenVideoBundle.setLayers(layers);
+                applyEncodingLayer(screenVideoBundle);
+            }
+        });
+    }
+
+    @Override
+    public void setCameraLayers(List<EncodingLayer> layers) {
+        callExecutor.execute(() -> {
+            cameraLayers = layers;
+            if (cameraVideoBundle != null) {
+                cameraVideoBundle.setLayers(layers);
+                applyEncodingLayer(cameraVideoBundle);
+            }
+        });
+    }
+
+    @Override
+    public void setFileTransferListener(FileTransferListener listener) {
+        fileTransfer.setListener(listener);
+    }
+
+    @Override
+    public void setRemoteInputListener(RemoteInputListener listener) {
+        this.remoteInputListener = listener;
+    }
+
+    /**
+     * Asks the other party to send one of its tracks ("screen" or "camera") with the given layer of its
+     * ladder, 0 being the lowest quality. Layers above its ladder mean its best one.
+     *
+     * @throws IllegalArgumentException if layer isn't 0..255 or trackId is longer than
+     *                                  {@link LayerSelectionCodec#MAX_TRACK_ID_LENGTH}.
+     */
+    @Override
+    public void selectRemoteLayer(String trackId, int layer) {
+        ByteBuffer message = LayerSelectionCodec.encode(trackId, layer);
+        callExecutor.execute(() -> {
+            if (!dataChannelRouter.send(new DataChannel.Buffer(message, true))) {
+                Log.w(TAG, "selectRemoteLayer() no open data channel, " + trackId + " layer " + layer + " not requested");
+            }
+        });
+    }
+
+    /**
+     * Queues a file for the other party, sent once the transfer channel is open, this call or a next one.
+     */
+    @Override
+    public void sendFile(File file) {
+        fileTransfer.send(file);
+    }
+
+    /**
+     * Latest stats samples of a track ("screen", "camera", "camera-audio"), of all for null, oldest
+     * first. They're kept after the call ends. Any thread.
+     */
+    @Override
+    public List<TrackStatsSample> getStatsSnapshot(String trackId) {
+        return statsSampler.snapshot(trackId);
+    }
+
     @Override
     public void call() {
-        initWebRTC();
-        doOffer();
+        callExecutor.execute(() -> {
+            initWebRTC("caller");
+            sessionId = UUID.randomUUID().toString();
+            candidateBatcher.setSessionId(sessionId);
+            // Remote candidates wait for the answer.
+            queuedRemoteCandidates.startQueuing();
+            doOffer();
+        });
     }
 
     @Override
     public void declineSupportCall() {
+        callExecutor.execute(this::onDeclineSupportCall);
+    }
+
+    private void onDeclineSupportCall() {
         if (callWaitingForPermission == null) {
             Log.e(TAG, "callWaitingForPermission is null! can't decline null stuff -_-U");
             return;
@@ -425,31 +912,93 @@ public class WebRTCCall implements IWebRTCCall {
         callWaitingForPermission = null;
     }
 
+    @Override
+    public void setIceRestartPolicy(IceRestartPolicy policy) {
+        callExecutor.execute(() -> iceRestartPolicy = policy);
+    }
+
+    @Override
+    public void setScreenShareEnabled(boolean enabled) {
+        callExecutor.execute(() -> setSending(screenVideoBundle, enabled));
+    }
+
+    @Override
+    public void setCameraEnabled(boolean enabled) {
+        callExecutor.execute(() -> setSending(cameraVideoBundle, enabled));
+    }
+
+    @Override
+    public void switchCamera() {
+        callExecutor.execute(this::onSwitchCamera);
+    }
+
+    @Override
+    public void hang() {
+        callExecutor.execute(this::closeCall);
+    }
+
     /**
-     * Closes and frees all WebRTC objects.
+     * Stops using this instance, the call is closed and the call thread stopped.
      */
     @Override
-    public void hang() {
+    public void release() {
+        callExecutor.execute(() -> {
+            closeCall();
+            // After closeCall, which hands the transfer its closed channel.
+            fileTransfer.release();
+            if (mediaEngine.isStarted()) {
+                releaseViews();
+                mediaEngine.release();
+            }
+        });
+        callExecutor.quit();
+    }
+
+    /**
+     * Closes and frees all WebRTC objects. Call thread only.
+     */
+    private void closeCall() {
 
         // PeerConnection null means call is already closed or not initiated.
         if (peerConnection == null) {
             return;
         }
 
-        queuedRemoteCandidates = null;
+        queuedRemoteCandidates.clear();
+        candidateBatcher.clear();
+        statsSampler.stop();
+        stopIceRecovery();
+        pendingReOffer = null;
+        sessionId = null;
+        candidateBatcher.setSessionId(null);
 
         remoteCameraProxyRenderer.setTarget(null);
+        remoteCameraProxyRenderer.setFirstFrameListener(null);
         remoteScreenProxyRenderer.setTarget(null);
+        remoteScreenProxyRenderer.setFirstFrameListener(null);
         localProxyVideoSink.setTarget(null);
 
-        remoteCameraVideoView.release();
-        remoteScreenVideoView.release();
-        localVideoView.release();
-
-        if (dataChannel != null) {
-            dataChannel.dispose();
-            dataChannel = null;
-        }
+        clearViews();
+
+        dataChannelRouter.setControlChannel(null);
+        dataChannelRouter.setPointerChannel(null);
+        remoteInput.reset();
+        // Touches are sent through the router on the UI thread, one may be sending right now. The
+        // channels are disposed behind it, later ones see the router empty.
+        final DataChannel closedControl = dataChannel;
+        final DataChannel closedPointer = pointerChannel;
+        dataChannel = null;
+        pointerChannel = null;
+        runOnUiThread(() -> {
+            if (closedControl != null) {
+                closedControl.dispose();
+            }
+            if (closedPointer != null) {
+                closedPointer.dispose();
+            }
+        });
+        // Disposed by the transfer thread once it's done with it.
+        fileTransfer.setDataChannel(null);
 
         peerConnection.close();
         peerConnection.dispose();
@@ -461,22 +1010,48 @@ public class WebRTCCall implements IWebRTCCall {
         disposeBundle(cameraVideoBundle);
         disposeBundle(screenVideoBundle);
 
-        factory.dispose();
-        rootEglBase.release();
+        // Factory and EGL context stay warm in mediaEngine for the next call.
+        factory = null;
+
+        if (timeline != null) {
+            Log.i(TAG, "Call set up timeline " + timeline.toRecord(System.nanoTime()));
+            timeline = null;
+        }
+        Log.i(TAG, "Remote input " + remoteInput.toRecord(lastRoundTripTimeMs() / 2));
+        remoteInput.resetStats();
+    }
+
+    /**
+     * Latest RTT the stats sampler got, 0 if none.
+     */
+    private double lastRoundTripTimeMs() {
+        List<TrackStatsSample> samples = statsSampler.snapshot(null);
+        for (int i = samples.size() - 1; i >= 0; i--) {
+            if (samples.get(i).roundTripTimeMs >= 0) {
+                return samples.get(i).roundTripTimeMs;
+            }
+        }
+        return 0;
     }
 
     private void disposeBundle(VideoBundle bundle) {
         if (bundle.videoCapturer == null) {
             return;
         }
-        try {
-            bundle.videoCapturer.stopCapture();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (bundle.sending) {
+            try {
+                bundle.videoCapturer.stopCapture();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
         }
         bundle.videoCapturer.dispose();
         bundle.videoSource.dispose();
         bundle.surfaceTextureHelper.dispose();
+        if (bundle.staticContentFilter != null) {
+            Log.d(TAG, "disposeBundle() " + bundle.name + " frames forwarded: " + bundle.staticContentFilter.getForwardedFrames()
+                    + ", dropped as unchanged: " + bundle.staticContentFilter.getDroppedFrames());
+        }
     }
 
     private void doOffer() {
@@ -485,100 +1060,178 @@ public class WebRTCCall implements IWebRTCCall {
             return;
         }
         createDataChannel();
+        timeline.mark(CallTimeline.Phase.CREATE_OFFER);
+        createOffer(sdpConstraints);
+    }
+
+    /**
+     * Offers new ICE credentials on the same PeerConnection, tracks, capturers and data channel stay.
+     */
+    private void restartIce() {
+        MediaConstraints constraints = new MediaConstraints();
+        constraints.mandatory.addAll(sdpConstraints.mandatory);
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+        // Candidates of the new credentials have to wait for the answer.
+        queuedRemoteCandidates.startQueuing();
+        createOffer(constraints);
+    }
+
+    private void createOffer(MediaConstraints constraints) {
         peerConnection.createOffer(new CustomSdpObserver("localCreateOffer") {
             @Override
             public void onCreateSuccess(SessionDescription sessionDescription) {
                 super.onCreateSuccess(sessionDescription);
+                callExecutor.execute(() -> {
 
-                Log.d(TAG, "doOffer() - onCreateSuccess " + sessionDescription.toString());
+                    Log.d(TAG, "doOffer() - onCreateSuccess " + sessionDescription.toString());
 
-                //Can't use CustomSdpObserver with overriding here, webrtc is using this interface here in a
-                //weird manner and your going to get an exception.
-                peerConnection.setLocalDescription(
-                        new SdpObserver() {
-                            @Override
-                            public void onCreateSuccess(SessionDescription sessionDescription) {
-                                // Not applicable
-                            }
-
-                            @Override
-                            public void onCreateFailure(String s) {
-                                // Not applicable
-                            }
+                    if (peerConnection == null) {
+                        Log.w(TAG, "doOffer() - call closed while creating the offer");
+                        return;
+                    }
+                    timeline.mark(CallTimeline.Phase.LOCAL_DESCRIPTION_CREATED);
+                    final SessionDescription localDescription = mungeLocalDescription(sessionDescription);
+
+                    //Can't use CustomSdpObserver with overriding here, webrtc is using this interface here in a
+                    //weird manner and your going to get an exception.
+                    peerConnection.setLocalDescription(
+                            new SdpObserver() {
+                                @Override
+                                public void onCreateSuccess(SessionDescription sessionDescription) {
+                                    // Not applicable
+                                }
 
-                            @Override
-                            public void onSetSuccess() {
+                                @Override
+                                public void onCreateFailure(String s) {
+                                    // Not applicable
+                                }
 
-                                Log.d(TAG, "doOffer - setLocalDescription success");
+                                @Override
+                                public void onSetSuccess() {
+                                    callExecutor.execute(() -> {
+
+                                        Log.d(TAG, "doOffer - setLocalDescription success");
+                                        if (peerConnection == null) {
+                                            return;
+                                        }
+                                        timeline.mark(CallTimeline.Phase.LOCAL_DESCRIPTION_SET);
+                                        applyEncodingLayers();
+
+                                        // Sending OFFER to the other party
+                                        SdpSignaling signalingCmd = new SdpSignaling();
+                                        signalingCmd.setType("offer");
+                                        signalingCmd.setSessionId(sessionId);
+                                        signalingCmd.setSdp(localDescription.description);
+
+                                        if (signaling == null) {
+                                            Log.e(TAG, "Signaling is null! can't send OFFER!");
+                                            return;
+                                        }
+
+                                        // Ask to send it back
+                                        signaling.toSend(signalingCmd, descriptionSendCallback);
+                                    });
+                                }
 
-                                // Sending OFFER to the other party
-                                SdpSignaling signalingCmd = new SdpSignaling();
-                                signalingCmd.setType("offer");
-                                signalingCmd.setSdp(sessionDescription.description);
+                                @Override
+                                public void onSetFailure(String s) {
+                                    Log.e(TAG, "doOffer - setLocalDescription failure");
 
-                                if (signaling == null) {
-                                    Log.e(TAG, "Signaling is null! can't send OFFER!");
-                                    return;
                                 }
+                            },
+                            localDescription);
+                });
+            }
+        }, constraints);
+    }
 
-                                // Ask to send it back
-                                signaling.toSend(signalingCmd);
-
-                            }
+    /**
+     * Applies the SDP transforms to a created offer or answer, the result is both set locally and sent.
+     */
+    private SessionDescription mungeLocalDescription(SessionDescription sessionDescription) {
+        return new SessionDescription(sessionDescription.type, sdpMunger.munge(sessionDescription.description));
+    }
 
-                            @Override
-                            public void onSetFailure(String s) {
-                                Log.e(TAG, "doOffer - setLocalDescription failure");
+    private void onOfferReceived(SdpSignaling signalingCmd) {
+        Log.d(TAG, "onOfferReceived()");
 
-                            }
-                        },
-                        sessionDescription);
+        // PeerConnection null means call is already closed or not initiated.
+        if (peerConnection != null) {
+            Log.w(TAG, "Getting OFFER having a call, this will end the current one");
+            runOnUiThread(() -> {
+                Toast.makeText(ctxWeak.get(), ctxWeak.get().getString(R.string.support_toast_called_having_a_call), Toast.LENGTH_SHORT).show();
+            });
+        }
 
-            }
-        }, sdpConstraints);
+        initWebRTC("callee");
+        // Old clients don't send a session id, their offers always start a new call.
+        sessionId = signalingCmd.getSessionId();
+        candidateBatcher.setSessionId(sessionId);
+        timeline.mark(CallTimeline.Phase.REMOTE_OFFER);
+        // Closing the previous call dropped the queue, candidates for this offer are next.
+        queuedRemoteCandidates.startQueuing();
+        setRemoteOffer(signalingCmd);
     }
 
-    private void onOfferReceived(SdpSignaling signalingCmd) {
-        Log.d(TAG, "onOfferReceived():" + signalingCmd.toJsonString());
-        runOnUiThread(() -> {
+    /**
+     * Offer of the current session (ICE restart, new tracks): applied to the live PeerConnection and
+     * answered, nothing is rebuilt and no permission is asked again. One arriving while the previous
+     * one is still being answered waits until the signaling state is STABLE again, only the newest.
+     */
+    private void onReOfferReceived(SdpSignaling signalingCmd) {
+        Log.d(TAG, "onReOfferReceived() session " + sessionId);
 
-            // PeerConnection null means call is already closed or not initiated.
-            if (peerConnection != null) {
-                Log.w(TAG, "Getting OFFER having a call, this will end the current one");
-                runOnUiThread(() -> {
-                    Toast.makeText(ctxWeak.get(), ctxWeak.get().getString(R.string.support_toast_called_having_a_call), Toast.LENGTH_SHORT).show();
-                });
+        if (peerConnection.signalingState() != PeerConnection.SignalingState.STABLE) {
+            // Both sides offering within the session, the session offerer keeps its offer.
+            if (offerer) {
+                Log.w(TAG, "onReOfferReceived() glare, keeping our pending offer");
+                return;
             }
+            Log.w(TAG, "onReOfferReceived() while " + peerConnection.signalingState() + ", waiting for STABLE");
+            pendingReOffer = signalingCmd;
+            return;
+        }
+        // Candidates of the new offer wait for our answer, as in the first negotiation.
+        queuedRemoteCandidates.startQueuing();
+        setRemoteOffer(signalingCmd);
+    }
 
-            initWebRTC();
-            //Can't use CustomSdpObserver with overriding here, webrtc is using this interface here in a
-            //weird manner and your going to get an exception.
-            peerConnection.setRemoteDescription(
-                    new SdpObserver() {
-                        @Override
-                        public void onCreateSuccess(SessionDescription sessionDescription) {
-                            // Not applicable
-                        }
+    private void onSignalingStable() {
+        if (pendingReOffer == null || peerConnection == null) {
+            return;
+        }
+        SdpSignaling signalingCmd = pendingReOffer;
+        pendingReOffer = null;
+        onReOfferReceived(signalingCmd);
+    }
 
-                        @Override
-                        public void onCreateFailure(String s) {
-                            // Not applicable
-                        }
+    private void setRemoteOffer(SdpSignaling signalingCmd) {
+        //Can't use CustomSdpObserver with overriding here, webrtc is using this interface here in a
+        //weird manner and your going to get an exception.
+        peerConnection.setRemoteDescription(
+                new SdpObserver() {
+                    @Override
+                    public void onCreateSuccess(SessionDescription sessionDescription) {
+                        // Not applicable
+                    }
 
-                        @Override
-                        public void onSetSuccess() {
-                            Log.d(TAG, "peerConnection.setRemoteDescription: success");
-                            doAnswer(signalingCmd);
-                        }
+                    @Override
+                    public void onCreateFailure(String s) {
+                        // Not applicable
+                    }
 
-                        @Override
-                        public void onSetFailure(String s) {
-                            Log.e(TAG, "peerConnection.setRemoteDescription: failure");
-                        }
-                    },
-                    new SessionDescription(SessionDescription.Type.OFFER, signalingCmd.getSdp()));
+                    @Override
+                    public void onSetSuccess() {
+                        Log.d(TAG, "peerConnection.setRemoteDescription: success");
+                        callExecutor.execute(() -> doAnswer(signalingCmd));
+                    }
 
-        });
+                    @Override
+                    public void onSetFailure(String s) {
+                        Log.e(TAG, "peerConnection.setRemoteDescription: failure");
+                    }
+                },
+                new SessionDescription(SessionDescription.Type.OFFER, signalingCmd.getSdp()));
     }
 
     private void doAnswer(SdpSignaling offerCmd) {
@@ -588,51 +1241,66 @@ public class WebRTCCall implements IWebRTCCall {
             Log.e(TAG, "Trying to do doAnswer() without having peer connection! O_O");
             return;
         }
+        timeline.mark(CallTimeline.Phase.REMOTE_DESCRIPTION_SET);
         peerConnection.createAnswer(new CustomSdpObserver("localCreateAns") {
             @Override
             public void onCreateSuccess(SessionDescription sessionDescription) {
                 super.onCreateSuccess(sessionDescription);
+                callExecutor.execute(() -> {
 
-                Log.d(TAG, "doAnswer() - onCreateSuccess" + sessionDescription.toString());
-
-                peerConnection.setLocalDescription(new SdpObserver() {
-                    @Override
-                    public void onCreateSuccess(SessionDescription sessionDescription) {
-                        // Not applicable
-                    }
+                    Log.d(TAG, "doAnswer() - onCreateSuccess" + sessionDescription.toString());
 
-                    @Override
-                    public void onCreateFailure(String s) {
-                        // Not applicable
+                    if (peerConnection == null) {
+                        Log.w(TAG, "doAnswer() - call closed while creating the answer");
+                        return;
                     }
+                    timeline.mark(CallTimeline.Phase.LOCAL_DESCRIPTION_CREATED);
+                    final SessionDescription localDescription = mungeLocalDescription(sessionDescription);
 
-                    @Override
-                    public void onSetSuccess() {
-                        Log.d(TAG, "doAnswer() - setLocalDescription success ");
-                        drainCandidates();
-
-                        // Sending ANSWER to the other party
-                        SdpSignaling signalingCmd = new SdpSignaling();
-                        signalingCmd.setType("answer");
-                        signalingCmd.setSdp(sessionDescription.description);
-                        if (signaling == null) {
-                            Log.e(TAG, "Signaling is null! can't send ANSWER back!");
-                            return;
+                    peerConnection.setLocalDescription(new SdpObserver() {
+                        @Override
+                        public void onCreateSuccess(SessionDescription sessionDescription) {
+                            // Not applicable
                         }
 
-                        // Ask to send it back
-                        signaling.toSend(signalingCmd);
+                        @Override
+                        public void onCreateFailure(String s) {
+                            // Not applicable
+                        }
 
-                    }
+                        @Override
+                        public void onSetSuccess() {
+                            callExecutor.execute(() -> {
+                                Log.d(TAG, "doAnswer() - setLocalDescription success ");
+                                if (peerConnection == null) {
+                                    return;
+                                }
+                                timeline.mark(CallTimeline.Phase.LOCAL_DESCRIPTION_SET);
+                                applyEncodingLayers();
+                                drainCandidates();
 
-                    @Override
-                    public void onSetFailure(String s) {
-                        Log.e(TAG, "doAnswer() - setLocalDescription failure ");
+                                // Sending ANSWER to the other party
+                                SdpSignaling signalingCmd = new SdpSignaling();
+                                signalingCmd.setType("answer");
+                                signalingCmd.setSessionId(sessionId);
+                                signalingCmd.setSdp(localDescription.description);
+                                if (signaling == null) {
+                                    Log.e(TAG, "Signaling is null! can't send ANSWER back!");
+                                    return;
+                                }
 
-                    }
-                }, sessionDescription);
+                                // Ask to send it back
+                                signaling.toSend(signalingCmd, descriptionSendCallback);
+                            });
+                        }
 
+                        @Override
+                        public void onSetFailure(String s) {
+                            Log.e(TAG, "doAnswer() - setLocalDescription failure ");
 
+                        }
+                    }, localDescription);
+                });
             }
         }, new MediaConstraints());
     }
@@ -644,6 +1312,11 @@ public class WebRTCCall implements IWebRTCCall {
             Log.e(TAG, "Received an unexpected ANSWER! O_O, discarding");
             return;
         }
+        if (signalingCmd.getSessionId() != null && !signalingCmd.getSessionId().equals(sessionId)) {
+            Log.w(TAG, "Received an ANSWER of session " + signalingCmd.getSessionId() + ", discarding");
+            return;
+        }
+        timeline.mark(CallTimeline.Phase.REMOTE_ANSWER);
         peerConnection.setRemoteDescription(
                 new SdpObserver() {
                     @Override
@@ -659,7 +1332,12 @@ public class WebRTCCall implements IWebRTCCall {
                     @Override
                     public void onSetSuccess() {
                         Log.d(TAG, "onAnswerReceived.setRemoteDescription: success");
-                        drainCandidates();
+                        callExecutor.execute(() -> {
+                            if (peerConnection != null) {
+                                timeline.mark(CallTimeline.Phase.REMOTE_DESCRIPTION_SET);
+                                drainCandidates();
+                            }
+                        });
                     }
 
                     @Override
@@ -678,51 +1356,54 @@ public class WebRTCCall implements IWebRTCCall {
         //we have received ice candidate. We can set it to the other peer.
         Log.d(TAG, "onIceCandidateReceived() " + iceCandidate.toString());
 
-        //Sending the CANDIDATE to the other party
-        SdpSignaling signalingCmd = new SdpSignaling();
-        signalingCmd.setType("candidate");
-        signalingCmd.setSdpMid(iceCandidate.sdpMid);
-        signalingCmd.setSdpMLineIndex(iceCandidate.sdpMLineIndex);
-        signalingCmd.setSdp(iceCandidate.sdp);
+        //Sending the CANDIDATE to the other party, batched with the ones gathered right after it
+        candidateBatcher.add(iceCandidate);
+    }
 
-        if (signaling == null) {
-            Log.e(TAG, "Signaling is null! can't send CANDIDATE back!");
+    private void onRemoteIceCandidateReceived(SdpSignaling signalingCmd) {
+        Log.d(TAG, "onRemoteIceCandidateReceived() " + signalingCmd.getSdpMid() + ":" + signalingCmd.getSdpMLineIndex());
+
+        addRemoteCandidate(new IceCandidate(signalingCmd.getSdpMid(),
+                signalingCmd.getSdpMLineIndex(),
+                signalingCmd.getSdp()));
+    }
+
+    private void onRemoteIceCandidatesReceived(SdpSignaling signalingCmd) {
+        if (signalingCmd.getCandidates() == null) {
+            Log.w(TAG, "onRemoteIceCandidatesReceived() without candidates");
             return;
         }
+        Log.d(TAG, "onRemoteIceCandidatesReceived() " + signalingCmd.getCandidates().size() + " candidates");
 
-        // Ask to send it back
-        signaling.toSend(signalingCmd);
+        for (SdpSignaling.Candidate candidate : signalingCmd.getCandidates()) {
+            addRemoteCandidate(new IceCandidate(candidate.getSdpMid(),
+                    candidate.getSdpMLineIndex(),
+                    candidate.getSdp()));
+        }
     }
 
-    private void onRemoteIceCandidateReceived(SdpSignaling signalingCmd) {
-        Log.d(TAG, "onRemoteIceCandidateReceived() " + signalingCmd.toJsonString());
-
-        if (peerConnection == null) {
-            if (queuedRemoteCandidates == null) {
-                Log.w(TAG, "Queue of candidates is null!");
-                return;
-            }
-            queuedRemoteCandidates.add(new IceCandidate(signalingCmd.getSdpMid(),
-                    signalingCmd.getSdpMLineIndex(),
-                    signalingCmd.getSdp()));
+    /**
+     * Candidates are queued until the remote description is set, adding them before fails.
+     */
+    private void addRemoteCandidate(IceCandidate candidate) {
+        if (queuedRemoteCandidates.isQueuing()) {
+            queuedRemoteCandidates.add(candidate);
+        } else if (peerConnection == null) {
+            Log.w(TAG, "Not queuing candidates and no peer connection, discarding!");
         } else {
-            peerConnection.addIceCandidate(
-                    new IceCandidate(signalingCmd.getSdpMid(),
-                            signalingCmd.getSdpMLineIndex(),
-                            signalingCmd.getSdp()));
+            peerConnection.addIceCandidate(candidate);
         }
-
     }
 
     private void drainCandidates() {
         Log.d(TAG, "drainCandidates()");
-        if (queuedRemoteCandidates != null) {
-            Log.d(TAG, "drainCandidates() adding " + queuedRemoteCandidates.size() + " remote candidates");
-            for (IceCandidate candidate : queuedRemoteCandidates) {
-                peerConnection.addIceCandidate(candidate);
-            }
-            queuedRemoteCandidates = null;
+        if (peerConnection == null) {
+            queuedRemoteCandidates.clear();
+            return;
         }
+        int drained = queuedRemoteCandidates.drainTo(peerConnection::addIceCandidate);
+        timeline.mark(CallTimeline.Phase.CANDIDATES_DRAINED);
+        Log.d(TAG, "drainCandidates() added " + drained + " remote candidates");
     }
 
     private VideoCapturer createCameraCapturer(CameraEnumerator enumerator) {
@@ -786,22 +1467,35 @@ public class WebRTCCall implements IWebRTCCall {
         });
     }
 
+    /**
+     * Can be called from any thread, the command is handled on the call thread.
+     */
     @Override
     public void onSignalingReceived(SdpSignaling signalingCmd) {
+        callExecutor.execute(() -> handleSignaling(signalingCmd));
+    }
+
+    private void handleSignaling(SdpSignaling signalingCmd) {
 
         if (signalingCmd.getType().equalsIgnoreCase("offer")) {
+            if (peerConnection != null && sessionId != null && sessionId.equals(signalingCmd.getSessionId())) {
+                onReOfferReceived(signalingCmd);
+                return;
+            }
+            if (peerConnection != null && winsGlare(signalingCmd)) {
+                Log.w(TAG, "Offer glare, session " + sessionId + " wins over " + signalingCmd.getSessionId());
+                return;
+            }
             // Do not call here onOfferDirectly or we're going to have an issue of not
             // asking for accepting the call for second and subsequent times.
             callWaitingForPermission = signalingCmd;
-            queuedRemoteCandidates = new ArrayList<>();
+            queuedRemoteCandidates.startQueuing();
 
             if (mediaProjectionPermissionResultData != null) {
                 onOfferReceived(callWaitingForPermission);
             } else {
-                runOnUiThread(() -> {
-                    Toast.makeText(ctxWeak.get(), "Call received but not accepted to share screen.", Toast.LENGTH_SHORT).show();
-                    hang();
-                });
+                runOnUiThread(() -> Toast.makeText(ctxWeak.get(), "Call received but not accepted to share screen.", Toast.LENGTH_SHORT).show());
+                closeCall();
             }
 
         } else if (signalingCmd.getType().equalsIgnoreCase("answer")) {
@@ -809,38 +1503,57 @@ public class WebRTCCall implements IWebRTCCall {
 
         } else if (signalingCmd.getType().equalsIgnoreCase("candidate")) {
             onRemoteIceCandidateReceived(signalingCmd);
-        }
 
-    }
+        } else if (signalingCmd.getType().equalsIgnoreCase("candidates")) {
+            onRemoteIceCandidatesReceived(signalingCmd);
+        }
 
-    private void runOnUiThread(Runnable toRun) {
-        Handler h = new Handler(ctxWeak.get().getMainLooper());
-        h.post(toRun);
     }
 
-    private static class ProxyVideoSink implements VideoSink {
-        private VideoSink target;
-
-        @Override
-        synchronized public void onFrame(VideoFrame frame) {
-            if (target == null) {
-                return;
-            }
-
-            target.onFrame(frame);
+    /**
+     * Both sides calling at once: each gets the other's offer while waiting for an answer. The offer
+     * with the higher session id wins, so both sides agree without talking: the winner ignores the other
+     * offer and the loser drops its own call and answers. Old clients, without session id, always lose.
+     * There is no rollback of a local offer in this SDK, the loser rebuilds its PeerConnection.
+     */
+    private boolean winsGlare(SdpSignaling offerCmd) {
+        if (!offerer || sessionId == null
+                || peerConnection.signalingState() != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+            return false;
         }
+        return offerCmd.getSessionId() == null || sessionId.compareTo(offerCmd.getSessionId()) > 0;
+    }
 
-        synchronized public void setTarget(VideoSink target) {
-            this.target = target;
-        }
+    private void runOnUiThread(Runnable toRun) {
+        callExecutor.executeOnUi(toRun);
     }
 
     class VideoBundle {
         String name;
+        CaptureProfile captureProfile;
         VideoCapturer videoCapturer;
         VideoSource videoSource;
         VideoTrack localVideoTrack;
         SurfaceTextureHelper surfaceTextureHelper;
+        StaticContentFilter staticContentFilter;
+        List<EncodingLayer> layers;
+        int layerIndex;
+        RtpSender sender;
+        boolean sending = true;
+
+        /**
+         * Keeps the layer index when it still exists, best quality otherwise.
+         */
+        void setLayers(List<EncodingLayer> layers) {
+            if (this.layers == null || layerIndex >= layers.size()) {
+                layerIndex = layers.size() - 1;
+            }
+            this.layers = layers;
+        }
+
+        EncodingLayer getLayer() {
+            return layers.get(layerIndex);
+        }
     }
 
 }
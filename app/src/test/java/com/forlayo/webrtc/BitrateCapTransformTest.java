@@ -0,0 +1,59 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BitrateCapTransformTest {
+
+    @Test
+    public void bandwidthGoesRightAfterTheConnectionLine() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+
+        new BitrateCapTransform().capKind("audio", 64).apply(sdp);
+
+        List<String> audio = sdp.getMediaSections().get(0).getLines();
+        assertEquals("c=IN IP4 0.0.0.0", audio.get(0));
+        assertEquals("b=AS:64", audio.get(1));
+        assertEquals("b=TIAS:64000", audio.get(2));
+        assertEquals("a=rtcp:9 IN IP4 0.0.0.0", audio.get(3));
+    }
+
+    @Test
+    public void planBTracksShareTheVideoSectionBudget() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+
+        new BitrateCapTransform().capTrack("screen", 1500).capTrack("camera", 500).apply(sdp);
+
+        List<String> video = sdp.getMediaSections().get(1).getLines();
+        assertEquals("b=AS:2000", video.get(1));
+        assertEquals("b=TIAS:2000000", video.get(2));
+    }
+
+    @Test
+    public void applyingAgainReplacesTheLines() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+        BitrateCapTransform caps = new BitrateCapTransform().capKind("audio", 64);
+
+        caps.apply(sdp);
+        String once = sdp.toString();
+        caps.apply(sdp);
+
+        assertEquals(once, sdp.toString());
+    }
+
+    @Test
+    public void sectionsWithoutCapsAreUntouched() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+
+        new BitrateCapTransform().capKind("audio", 64).apply(sdp);
+
+        for (String line : sdp.getMediaSections().get(2).getLines()) {
+            assertFalse(line, line.startsWith("b="));
+        }
+    }
+
+}
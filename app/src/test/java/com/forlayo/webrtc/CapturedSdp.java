@@ -0,0 +1,57 @@
+package com.forlayo.webrtc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SDPs of the app and of Chrome, shared with :benchmark.
+ */
+final class CapturedSdp {
+
+    private CapturedSdp() {
+    }
+
+    /**
+     * Plan B offer with "camera-audio", "screen" and "camera" tracks and a data channel, CRLF as on
+     * the wire.
+     */
+    static String offer() throws IOException {
+        return crlf(resource("offer.sdp"));
+    }
+
+    /**
+     * The app's answer to {@link #offer()}, sending "camera-audio" and "camera".
+     */
+    static String answer() throws IOException {
+        return crlf(resource("answer.sdp"));
+    }
+
+    /**
+     * Unified Plan offer of Chrome with audio, video and a data channel.
+     */
+    static String chromeOffer() throws IOException {
+        return crlf(resource("chrome-offer.sdp"));
+    }
+
+    private static String crlf(String sdp) {
+        return sdp.replace("\r\n", "\n").replace("\n", "\r\n");
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream in = CapturedSdp.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.forlayo.webrtc;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataChannelMessageDispatcherTest {
+
+    private static final int MESSAGES = 10_000;
+
+    private int touches;
+    private int textLength;
+
+    @Test
+    public void dispatchesByTypeAndDecodesText() {
+        DataChannelMessageDispatcher dispatcher = new DataChannelMessageDispatcher();
+        dispatcher.registerBinaryHandler(TouchEventCodec.TYPE_TOUCH, data -> touches++);
+        StringBuilder received = new StringBuilder();
+        dispatcher.registerTextHandler(received::append);
+
+        ByteBuffer touch = touch();
+        dispatcher.dispatch(touch, true);
+        dispatcher.dispatch(ByteBuffer.wrap(new byte[]{0x7f, 1, 2}), true);
+        dispatcher.dispatch(ByteBuffer.wrap("héllo".getBytes(StandardCharsets.UTF_8)), false);
+
+        assertEquals(1, touches);
+        assertEquals(0, touch.position());
+        assertEquals("héllo", received.toString());
+        assertEquals(1, dispatcher.getUnhandledCount());
+    }
+
+    @Test
+    public void allocationCountStaysFlat() {
+        DataChannelMessageDispatcher dispatcher = new DataChannelMessageDispatcher();
+        dispatcher.registerBinaryHandler(TouchEventCodec.TYPE_TOUCH, data -> touches++);
+        dispatcher.registerTextHandler(text -> textLength += text.length());
+        ByteBuffer touch = touch();
+        ByteBuffer text = ByteBuffer.wrap(new byte[1024]);
+
+        // Grows once to the largest text, never again.
+        dispatcher.dispatch(text, false);
+        long allocations = dispatcher.getAllocationCount();
+        for (int i = 0; i < MESSAGES; i++) {
+            dispatcher.dispatch(touch, true);
+            dispatcher.dispatch(text, false);
+        }
+
+        assertEquals(allocations, dispatcher.getAllocationCount());
+        assertEquals(MESSAGES, touches);
+        assertEquals((MESSAGES + 1) * 1024, textLength);
+    }
+
+    @Test
+    public void dispatchDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        DataChannelMessageDispatcher dispatcher = new DataChannelMessageDispatcher();
+        dispatcher.registerBinaryHandler(TouchEventCodec.TYPE_TOUCH, data -> touches++);
+        dispatcher.registerTextHandler(text -> textLength += text.length());
+        ByteBuffer touch = touch();
+        ByteBuffer text = ByteBuffer.wrap("{\"type\":\"hello\"}".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < MESSAGES; i++) {
+            dispatcher.dispatch(touch, true);
+            dispatcher.dispatch(text, false);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MESSAGES; i++) {
+            dispatcher.dispatch(touch, true);
+            dispatcher.dispatch(text, false);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        // Far less than a single byte per message, whatever the measuring itself costs.
+        assertTrue("Allocated " + allocated + " bytes for " + 2 * MESSAGES + " messages", allocated < MESSAGES);
+    }
+
+    private static ByteBuffer touch() {
+        ByteBuffer touch = TouchEventCodec.allocate();
+        TouchEventCodec.encode(touch, 0, 0, 1, 0.5f, 0.5f, 1000);
+        return touch;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreferCodecTransformTest {
+
+    @Test
+    public void movesCodecFirstWithItsRtx() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+
+        new PreferCodecTransform("video", "H264").apply(sdp);
+
+        assertEquals(Arrays.asList("100", "101", "96", "97", "98", "99", "127", "124", "125"),
+                sdp.getMediaSections().get(1).getPayloadTypes());
+    }
+
+    @Test
+    public void keepsRtxOfTheOtherCodecsWithThem() throws Exception {
+        Sdp sdp = Sdp.parse(CapturedSdp.offer());
+
+        new PreferCodecTransform("video", "VP9").apply(sdp);
+
+        assertEquals(Arrays.asList("98", "99", "96", "97", "100", "101", "127", "124", "125"),
+                sdp.getMediaSections().get(1).getPayloadTypes());
+    }
+
+    @Test
+    public void leavesOtherKindsAndMissingCodecsAlone() throws Exception {
+        String offer = CapturedSdp.offer();
+        Sdp sdp = Sdp.parse(offer);
+
+        new PreferCodecTransform("video", "AV1").apply(sdp);
+        new PreferCodecTransform("audio", "H264").apply(sdp);
+
+        assertEquals(offer, sdp.toString());
+    }
+
+    @Test
+    public void onlyTheMLineChanges() throws Exception {
+        String offer = CapturedSdp.offer();
+        Sdp sdp = Sdp.parse(offer);
+
+        new PreferCodecTransform("video", "H264").apply(sdp);
+
+        assertEquals(offer.replace("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127 124 125",
+                "m=video 9 UDP/TLS/RTP/SAVPF 100 101 96 97 98 99 127 124 125"), sdp.toString());
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RemoteInputDispatcherTest {
+
+    private static final int DOWN = 0;
+    private static final int UP = 1;
+    private static final int MOVE = DataChannelRoute.ACTION_MOVE;
+
+    private final UiExecutor executor = new UiExecutor();
+    private final List<String> dispatched = new ArrayList<>();
+    private final RemoteInputDispatcher dispatcher = new RemoteInputDispatcher(executor,
+            (action, pointerId, x, y) -> dispatched.add(name(action) + x));
+
+    @Test
+    public void holdsMovesUntilTheirDown() {
+        // The pointer channel overtakes backcontrol.
+        move(1, 0, 0.1f);
+        move(2, 0, 0.2f);
+        event(DOWN, 0, 0f);
+        event(UP, 3, 0.3f);
+        executor.drain();
+
+        assertEquals(Arrays.asList("down0.0", "move0.2", "up0.3"), dispatched);
+    }
+
+    @Test
+    public void holdsMovesOfNextGestureUntilItsDown() {
+        event(DOWN, 0, 0f);
+        move(1, 0, 0.1f);
+        executor.drain();
+        move(4, 3, 0.4f);
+        event(UP, 2, 0.2f);
+        executor.drain();
+        event(DOWN, 3, 0.3f);
+        executor.drain();
+
+        assertEquals(Arrays.asList("down0.0", "move0.1", "up0.2", "down0.3", "move0.4"), dispatched);
+    }
+
+    @Test
+    public void dropsMovesBehindTheirUp() {
+        event(DOWN, 0, 0f);
+        event(UP, 2, 0.2f);
+        move(1, 0, 0.1f);
+        executor.drain();
+
+        assertEquals(Arrays.asList("down0.0", "up0.2"), dispatched);
+    }
+
+    @Test
+    public void keepsMovesOfOlderSenders() {
+        ByteBuffer message = TouchEventCodec.allocate();
+        TouchEventCodec.encode(message, MOVE, 0, 1, 0.1f, 0f, 0);
+        dispatcher.onBinaryMessage(message);
+        executor.drain();
+
+        assertEquals(Arrays.asList("move0.1"), dispatched);
+    }
+
+    private void move(int sequence, int after, float x) {
+        ByteBuffer message = TouchEventCodec.allocate();
+        TouchEventCodec.encode(message, MOVE, 0, sequence, x, 0f, 0, after);
+        dispatcher.onBinaryMessage(message);
+    }
+
+    private void event(int action, int sequence, float x) {
+        ByteBuffer message = TouchEventCodec.allocate();
+        TouchEventCodec.encode(message, action, 0, sequence, x, 0f, 0);
+        dispatcher.onBinaryMessage(message);
+    }
+
+    private static String name(int action) {
+        return action == DOWN ? "down" : action == UP ? "up" : "move";
+    }
+
+    // Keeps the drain posted to the UI thread, run when the test says so.
+    private static final class UiExecutor extends CallExecutor {
+        private Runnable scheduled;
+
+        UiExecutor() {
+            super("test");
+        }
+
+        @Override
+        void scheduleOnUi(Runnable command, long delayMs) {
+            scheduled = command;
+        }
+
+        @Override
+        void cancelOnUi(Runnable command) {
+            scheduled = null;
+        }
+
+        /**
+         * Runs the drain until the queue is empty, waiting out the playout delay.
+         */
+        void drain() {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (scheduled != null && System.currentTimeMillis() < deadline) {
+                Runnable command = scheduled;
+                scheduled = null;
+                command.run();
+                if (scheduled != null) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+}
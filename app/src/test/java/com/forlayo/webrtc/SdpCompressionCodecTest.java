@@ -0,0 +1,74 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SdpCompressionCodecTest {
+
+    @Test
+    public void roundTripsCapturedSdps() throws Exception {
+        for (String sdp : Arrays.asList(CapturedSdp.offer(), CapturedSdp.answer(), CapturedSdp.chromeOffer())) {
+            String compressed = SdpCompressionCodec.compress(sdp);
+
+            assertEquals(sdp, SdpCompressionCodec.decompress(compressed));
+            assertTrue(compressed.length() < sdp.length() / 2);
+        }
+    }
+
+    @Test
+    public void roundTripsEveryBase64Padding() throws Exception {
+        // Deflate output lengths differ, so all three base64 tails come up.
+        for (String text : Arrays.asList("", "v=0\r\n", "a=ssrc:1 cname:ä€\r\n", "x", "xy", "xyz")) {
+            assertEquals(text, SdpCompressionCodec.decompress(SdpCompressionCodec.compress(text)));
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedData() throws Exception {
+        String compressed = SdpCompressionCodec.compress(CapturedSdp.offer());
+
+        assertRejected(compressed.substring(0, compressed.length() / 2 / 4 * 4));
+        assertRejected("");
+    }
+
+    @Test
+    public void rejectsDataInflatingAboveMaxLength() throws Exception {
+        char[] text = new char[SdpCompressionCodec.MAX_LENGTH];
+        Arrays.fill(text, 'a');
+        String largest = new String(text);
+
+        assertEquals(largest, SdpCompressionCodec.decompress(SdpCompressionCodec.compress(largest)));
+        assertRejected(SdpCompressionCodec.compress(largest + "a"));
+    }
+
+    @Test
+    public void rejectsInvalidBase64() throws Exception {
+        String compressed = SdpCompressionCodec.compress(CapturedSdp.offer());
+
+        assertRejected("*" + compressed.substring(1));
+        assertRejected(compressed.substring(0, 8) + "é" + compressed.substring(9));
+        // One character left over is never valid base64.
+        assertRejected(compressed.substring(0, compressed.length() / 4 * 4 - 3));
+    }
+
+    @Test
+    public void rejectsDataThatIsNotDeflate() {
+        assertRejected("////////////");
+    }
+
+    private static void assertRejected(String data) {
+        try {
+            SdpCompressionCodec.decompress(data);
+            fail("Decompressed " + data);
+        } catch (IOException expected) {
+            // Callers drop the message.
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SdpTest {
+
+    @Test
+    public void roundTripIsByteExact() throws Exception {
+        String offer = CapturedSdp.offer();
+
+        assertEquals(offer, Sdp.parse(offer).toString());
+    }
+
+    @Test
+    public void emptyMungerReturnsTheSameDescription() throws Exception {
+        String offer = CapturedSdp.offer();
+
+        assertEquals(offer, new SdpMunger().munge(offer));
+    }
+
+    @Test
+    public void lineFeedsComeBackAsCrlf() throws Exception {
+        String offer = CapturedSdp.offer();
+
+        assertEquals(offer, Sdp.parse(offer.replace("\r\n", "\n")).toString());
+    }
+
+    @Test
+    public void parsesSectionsOfThePlanBOffer() throws Exception {
+        List<Sdp.MediaSection> sections = Sdp.parse(CapturedSdp.offer()).getMediaSections();
+
+        assertEquals(3, sections.size());
+        assertEquals("audio", sections.get(0).getKind());
+        assertEquals("video", sections.get(1).getMid());
+        assertEquals("application", sections.get(2).getKind());
+        assertEquals(Arrays.asList("96", "97", "98", "99", "100", "101", "127", "124", "125"),
+                sections.get(1).getPayloadTypes());
+        assertEquals(Arrays.asList("100"), sections.get(1).findPayloadTypes("h264"));
+        assertEquals(Arrays.asList("101"), sections.get(1).findRtxPayloadTypes("100"));
+        assertTrue(sections.get(1).hasTrack("screen"));
+        assertTrue(sections.get(1).hasTrack("camera"));
+        assertTrue(sections.get(0).hasTrack("camera-audio"));
+    }
+
+}
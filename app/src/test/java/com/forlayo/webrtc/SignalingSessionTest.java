@@ -0,0 +1,214 @@
+package com.forlayo.webrtc;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignalingSessionTest {
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        Endpoint a = new Endpoint();
+        Endpoint b = new Endpoint();
+
+        send(a, "offer", 0);
+        send(b, "answer", 0);
+        sendCandidates(a, 1, 5);
+        settle(a, b);
+
+        assertEquals(list("offer0", "c1", "c2", "c3", "c4", "c5"), b.delivered);
+        assertEquals(list("answer0"), a.delivered);
+        assertTrue(a.wire.sent.isEmpty() && b.wire.sent.isEmpty());
+    }
+
+    @Test
+    public void resumesAfterGap() throws Exception {
+        Endpoint a = new Endpoint();
+        Endpoint b = new Endpoint();
+        sendCandidates(a, 1, 2);
+        settle(a, b);
+
+        send(a, "offer", 3);
+        a.wire.sent.clear();
+        sendCandidates(a, 4, 5);
+        settle(a, b);
+
+        // Messages after a gap are handed over as they come, the missing one when replayed.
+        assertDeliveredOnce(list("c1", "c2", "offer3", "c4", "c5"), b.delivered);
+    }
+
+    @Test
+    public void dropsReplayedDuplicates() throws Exception {
+        Endpoint a = new Endpoint();
+        Endpoint b = new Endpoint();
+        send(b, "answer", 0);
+        settle(a, b);
+        sendCandidates(a, 1, 3);
+        deliver(a, b);
+
+        // Reconnecting before the acks arrived replays what B already has.
+        a.session.onConnected();
+        settle(a, b);
+
+        assertEquals(list("c1", "c2", "c3"), b.delivered);
+    }
+
+    @Test
+    public void keepsNumberingWhenOtherPartyRestarts() throws Exception {
+        Endpoint a = new Endpoint();
+        Endpoint b = new Endpoint();
+        send(b, "answer", 0);
+        sendCandidates(a, 1, 5);
+        settle(a, b);
+
+        // B's app restarts, A calls it before hearing from the new instance.
+        Endpoint restarted = new Endpoint();
+        send(a, "offer", 6);
+        settle(a, restarted);
+        sendCandidates(a, 7, 16);
+        settle(a, restarted);
+        send(restarted, "answer", 1);
+        sendCandidates(a, 17, 17);
+        settle(a, restarted);
+
+        List<String> expected = list("offer6");
+        for (int i = 7; i <= 17; i++) {
+            expected.add("c" + i);
+        }
+        assertEquals(expected, restarted.delivered);
+        assertEquals(list("answer0", "answer1"), a.delivered);
+    }
+
+    @Test
+    public void ignoresAcksForPreviousSession() throws Exception {
+        Endpoint a = new Endpoint();
+        Endpoint b = new Endpoint();
+        send(b, "answer", 0);
+        sendCandidates(a, 1, 5);
+        settle(a, b);
+
+        // The restarted B offers, its offer is lost, then A's candidates carry acks of the old B.
+        Endpoint restarted = new Endpoint();
+        send(restarted, "offer", 1);
+        restarted.wire.sent.clear();
+        sendCandidates(a, 6, 6);
+        deliver(a, restarted);
+        send(restarted, "candidate", 2);
+        settle(a, restarted);
+
+        assertDeliveredOnce(list("answer0", "offer1", "candidate2"), a.delivered);
+    }
+
+    private static void send(Endpoint from, String type, int index) throws Exception {
+        SdpSignaling cmd = new SdpSignaling();
+        cmd.setType(type);
+        cmd.setSdp(type + index);
+        from.session.emit(cmd);
+    }
+
+    private static void sendCandidates(Endpoint from, int first, int last) throws Exception {
+        for (int i = first; i <= last; i++) {
+            SdpSignaling cmd = new SdpSignaling();
+            cmd.setType("candidate");
+            cmd.setSdp("c" + i);
+            from.session.emit(cmd);
+        }
+    }
+
+    private static void deliver(Endpoint from, Endpoint to) {
+        SdpSignaling cmd;
+        while ((cmd = from.wire.sent.poll()) != null) {
+            SdpSignaling handled = to.session.onReceived(cmd);
+            if (handled != null) {
+                to.delivered.add(handled.getSdp());
+            }
+        }
+    }
+
+    /**
+     * Runs both sides, acks, resumes and replays included, until nothing is left to send.
+     */
+    private static void settle(Endpoint a, Endpoint b) {
+        for (int round = 0; round < 100; round++) {
+            deliver(a, b);
+            deliver(b, a);
+            a.executor.runAll();
+            b.executor.runAll();
+            if (a.wire.sent.isEmpty() && b.wire.sent.isEmpty()) {
+                return;
+            }
+        }
+        throw new AssertionError("Signaling never settled");
+    }
+
+    private static void assertDeliveredOnce(List<String> expected, List<String> delivered) {
+        List<String> sortedExpected = new ArrayList<>(expected);
+        List<String> sortedDelivered = new ArrayList<>(delivered);
+        Collections.sort(sortedExpected);
+        Collections.sort(sortedDelivered);
+        assertEquals(sortedExpected, sortedDelivered);
+    }
+
+    private static List<String> list(String... items) {
+        List<String> list = new ArrayList<>();
+        for (String item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    private static final class Endpoint {
+        final ManualExecutor executor = new ManualExecutor();
+        final Wire wire = new Wire();
+        final SignalingSession session = new SignalingSession(executor, wire);
+        final List<String> delivered = new ArrayList<>();
+    }
+
+    // Delays are ignored, everything posted runs on the next runAll().
+    private static final class ManualExecutor extends CallExecutor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        ManualExecutor() {
+            super("test");
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        void schedule(Runnable command, long delayMs) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class Wire implements SignalingOutbox.Transport {
+        final ArrayDeque<SdpSignaling> sent = new ArrayDeque<>();
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void emit(SdpSignaling cmd) {
+            // As the socket, what was sent isn't changed by later stamps.
+            sent.add(cmd.copy());
+        }
+    }
+
+}
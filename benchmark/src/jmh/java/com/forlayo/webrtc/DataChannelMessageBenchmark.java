@@ -0,0 +1,73 @@
+package com.forlayo.webrtc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * DataChannel payloads: touch encoding as RemoteTouchSender does it and receiving through
+ * DataChannelMessageDispatcher, next to the string based versions they replaced.
+ */
+@State(Scope.Thread)
+public class DataChannelMessageBenchmark {
+
+    private final ByteBuffer touchBuffer = TouchEventCodec.allocate();
+    private final DataChannelMessageDispatcher dispatcher = new DataChannelMessageDispatcher();
+    private ByteBuffer encodedTouch;
+    private ByteBuffer encodedText;
+    private Blackhole blackhole;
+    private int sequence;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+
+        encodedTouch = TouchEventCodec.allocate();
+        TouchEventCodec.encode(encodedTouch, 2, 0, 1, 0.25f, 0.75f, 123456789L);
+
+        byte[] text = "Touch at  X:540.0 Y:1170.5".getBytes(StandardCharsets.UTF_8);
+        encodedText = ByteBuffer.allocateDirect(text.length);
+        encodedText.put(text).flip();
+
+        dispatcher.registerBinaryHandler(TouchEventCodec.TYPE_TOUCH,
+                data -> this.blackhole.consume(TouchEventCodec.x(data) + TouchEventCodec.y(data)));
+        dispatcher.registerTextHandler(message -> this.blackhole.consume(message.length()));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeTouch() {
+        TouchEventCodec.encode(touchBuffer, 2, 0, sequence++, 0.25f, 0.75f, 123456789L);
+        return touchBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer legacyEncodeTouch() {
+        String touchStr = "Touch at  X:" + 540.0f + " Y:" + 1170.5f;
+        return ByteBuffer.wrap(touchStr.getBytes());
+    }
+
+    @Benchmark
+    public void dispatchTouch() {
+        dispatcher.dispatch(encodedTouch, true);
+    }
+
+    @Benchmark
+    public void dispatchText() {
+        dispatcher.dispatch(encodedText, false);
+    }
+
+    @Benchmark
+    public String legacyDecodeText() {
+        ByteBuffer data = encodedText.duplicate();
+        final byte[] bytes = new byte[data.capacity()];
+        data.get(bytes);
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.forlayo.webrtc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captured payloads shared by the benchmarks.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Offer produced by the app (Plan B, screen + camera + audio + data), with CRLF line endings.
+     */
+    static String offerSdp() {
+        return sdp("offer");
+    }
+
+    /**
+     * An SDP fixture by name, with CRLF line endings: "offer", "answer" (the app answering offer) or
+     * "chrome-offer" (Unified Plan, audio + video + data). The {@link SdpCompressionCodec} dictionary
+     * was tuned on offer, the other two are held out.
+     */
+    static String sdp(String name) {
+        return resource(name + ".sdp").replace("\r\n", "\n").replace("\n", "\r\n");
+    }
+
+    static SdpSignaling offer() {
+        SdpSignaling signaling = new SdpSignaling();
+        signaling.setType("offer");
+        signaling.setSdp(offerSdp());
+        return signaling;
+    }
+
+    static SdpSignaling candidate(int index) {
+        SdpSignaling signaling = new SdpSignaling();
+        signaling.setType("candidate");
+        signaling.setSdpMid(index % 2 == 0 ? "audio" : "video");
+        signaling.setSdpMLineIndex(index % 2);
+        signaling.setSdp(candidateLine(index));
+        return signaling;
+    }
+
+    static SdpSignaling candidates(int count) {
+        List<SdpSignaling.Candidate> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+            candidate.setSdpMid("audio");
+            candidate.setSdpMLineIndex(0);
+            candidate.setSdp(candidateLine(i));
+            candidates.add(candidate);
+        }
+        SdpSignaling signaling = new SdpSignaling();
+        signaling.setType("candidates");
+        signaling.setCandidates(candidates);
+        return signaling;
+    }
+
+    static String candidateLine(int index) {
+        return "candidate:" + (842163049 + index) + " 1 " + (index % 3 == 0 ? "tcp" : "udp") + " 1686052607 "
+                + "83.45.12." + (index % 250) + " " + (50000 + index)
+                + " typ srflx raddr 192.168.1." + (index % 250) + " rport " + (50000 + index)
+                + " generation 0 ufrag S3fh network-id 3 network-cost 10";
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read fixture " + name, e);
+        }
+    }
+
+}
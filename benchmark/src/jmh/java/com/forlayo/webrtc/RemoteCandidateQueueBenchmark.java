@@ -0,0 +1,48 @@
+package com.forlayo.webrtc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Queueing remote candidates until the remote description is set, then draining them, as
+ * WebRTCCall.drainCandidates() does.
+ */
+@State(Scope.Thread)
+public class RemoteCandidateQueueBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int candidateCount;
+
+    private SdpSignaling batch;
+    private RemoteCandidateQueue<SdpSignaling.Candidate> queue;
+
+    @Setup
+    public void setup() {
+        batch = Fixtures.candidates(candidateCount);
+        queue = new RemoteCandidateQueue<>();
+    }
+
+    @Benchmark
+    public int queueAndDrain(Blackhole blackhole) {
+        queue.startQueuing();
+        for (SdpSignaling.Candidate candidate : batch.getCandidates()) {
+            queue.add(candidate);
+        }
+        return queue.drainTo(blackhole::consume);
+    }
+
+    @Benchmark
+    public int decodeQueueAndDrain(Blackhole blackhole) throws Exception {
+        SdpSignaling received = SdpSignalingCodec.fromJson(SdpSignalingCodec.toJson(batch));
+        queue.startQueuing();
+        for (SdpSignaling.Candidate candidate : received.getCandidates()) {
+            queue.add(candidate);
+        }
+        return queue.drainTo(blackhole::consume);
+    }
+
+}
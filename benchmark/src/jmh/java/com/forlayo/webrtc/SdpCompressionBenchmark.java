@@ -0,0 +1,85 @@
+package com.forlayo.webrtc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * An SDP on the signaling wire as plain JSON and with the sdp in {@link SdpCompressionCodec#ENCODING},
+ * encode (compress + JSON) and decode (JSON + decompress). Sizes, including deflate without the
+ * dictionary, are printed at setup.
+ * <p>
+ * The dictionary was tuned on the offer fixture, answer and chrome-offer show what it does on SDPs it
+ * hasn't seen.
+ */
+@State(Scope.Benchmark)
+public class SdpCompressionBenchmark {
+
+    @Param({"offer", "answer", "chrome-offer"})
+    private String fixture;
+
+    private SdpSignaling signaling;
+    private String plainJson;
+    private String compressedJson;
+
+    @Setup
+    public void setup() throws Exception {
+        signaling = new SdpSignaling();
+        signaling.setType(fixture.endsWith("offer") ? "offer" : "answer");
+        signaling.setSdp(Fixtures.sdp(fixture));
+        plainJson = SdpSignalingCodec.toJson(signaling);
+        compressedJson = encodeCompressed();
+
+        byte[] sdp = signaling.getSdp().getBytes(StandardCharsets.UTF_8);
+        System.out.printf("%n%s sdp %d B | plain JSON %d B | deflate without dictionary %d B | %s %d B, JSON %d B (%.0f%%)%n",
+                fixture, sdp.length, plainJson.length(), deflateWithoutDictionary(sdp).length,
+                SdpCompressionCodec.ENCODING, SdpCompressionCodec.deflate(sdp).length, compressedJson.length(),
+                100.0 * compressedJson.length() / plainJson.length());
+    }
+
+    @Benchmark
+    public String encodePlain() {
+        return SdpSignalingCodec.toJson(signaling);
+    }
+
+    @Benchmark
+    public String encodeCompressed() {
+        SdpSignaling wire = signaling.copy();
+        wire.setSdp(SdpCompressionCodec.compress(signaling.getSdp()));
+        wire.setEnc(SdpCompressionCodec.ENCODING);
+        return SdpSignalingCodec.toJson(wire);
+    }
+
+    @Benchmark
+    public SdpSignaling decodePlain() throws Exception {
+        return SdpSignalingCodec.fromJson(plainJson);
+    }
+
+    @Benchmark
+    public SdpSignaling decodeCompressed() throws Exception {
+        SdpSignaling decoded = SdpSignalingCodec.fromJson(compressedJson);
+        decoded.setSdp(SdpCompressionCodec.decompress(decoded.getSdp()));
+        decoded.setEnc(null);
+        return decoded;
+    }
+
+    private static byte[] deflateWithoutDictionary(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.forlayo.webrtc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SDP text processing done between createOffer/createAnswer and setLocalDescription.
+ */
+@State(Scope.Benchmark)
+public class SdpMungerBenchmark {
+
+    private String offerSdp;
+    private SdpMunger munger;
+
+    @Setup
+    public void setup() {
+        offerSdp = Fixtures.offerSdp();
+        munger = new SdpMunger()
+                .add(new PreferCodecTransform("video", "H264"))
+                .add(new BitrateCapTransform()
+                        .capTrack("screen", 1500)
+                        .capTrack("camera", 500)
+                        .capKind("audio", 64));
+    }
+
+    @Benchmark
+    public Sdp parse() {
+        return Sdp.parse(offerSdp);
+    }
+
+    @Benchmark
+    public String parseAndSerialize() {
+        return Sdp.parse(offerSdp).toString();
+    }
+
+    @Benchmark
+    public String munge() {
+        return munger.munge(offerSdp);
+    }
+
+}
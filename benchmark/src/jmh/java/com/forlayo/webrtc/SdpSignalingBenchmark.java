@@ -0,0 +1,88 @@
+package com.forlayo.webrtc;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialization of signaling messages, compared against the Gson + JSONObject round trip the app
+ * used to do in MainActivity.
+ */
+@State(Scope.Benchmark)
+public class SdpSignalingBenchmark {
+
+    private SdpSignaling offer;
+    private SdpSignaling candidate;
+    private SdpSignaling candidates;
+    private String offerJson;
+    private String candidatesJson;
+    private JSONObject offerJsonObject;
+    private Gson gson;
+
+    @Setup
+    public void setup() throws Exception {
+        offer = Fixtures.offer();
+        candidate = Fixtures.candidate(0);
+        candidates = Fixtures.candidates(16);
+        offerJson = SdpSignalingCodec.toJson(offer);
+        candidatesJson = SdpSignalingCodec.toJson(candidates);
+        offerJsonObject = new JSONObject(offerJson);
+        gson = new Gson();
+    }
+
+    @Benchmark
+    public String encodeOffer() {
+        return SdpSignalingCodec.toJson(offer);
+    }
+
+    @Benchmark
+    public SdpSignaling decodeOffer() throws Exception {
+        return SdpSignalingCodec.fromJson(offerJson);
+    }
+
+    @Benchmark
+    public JSONObject encodeOfferPayload() throws Exception {
+        return SdpSignalingCodec.toJsonObject(offer);
+    }
+
+    @Benchmark
+    public SdpSignaling decodeOfferPayload() throws Exception {
+        return SdpSignalingCodec.fromJsonObject(offerJsonObject);
+    }
+
+    @Benchmark
+    public String encodeCandidate() {
+        return SdpSignalingCodec.toJson(candidate);
+    }
+
+    @Benchmark
+    public String encodeCandidateBatch() {
+        return SdpSignalingCodec.toJson(candidates);
+    }
+
+    @Benchmark
+    public SdpSignaling decodeCandidateBatch() throws Exception {
+        return SdpSignalingCodec.fromJson(candidatesJson);
+    }
+
+    @Benchmark
+    public String legacyToJsonString() {
+        return new GsonBuilder().create().toJson(offer);
+    }
+
+    @Benchmark
+    public JSONObject legacyEncodeOfferPayload() throws Exception {
+        return new JSONObject(gson.toJson(offer));
+    }
+
+    @Benchmark
+    public SdpSignaling legacyDecodeOfferPayload() {
+        return gson.fromJson(offerJsonObject.toString(), SdpSignaling.class);
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.forlayo.webrtc;
+
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates pointer moves over a lossy link, once as the app sent them before (all on the reliable
+ * ordered "backcontrol") and once routed by {@link DataChannelRoute} (moves on the unordered,
+ * no-retransmit "pointer"), with the same losses for both, and reports p50/p99/p999/max of how stale
+ * the remote pointer is: from sending a move until the receiver holds it or a newer one.
+ * <p>
+ * The reliable channel is modeled as SCTP: a lost packet is fast retransmitted once three later ones
+ * are acked, then on retransmission timeouts doubling from --rto, and delivered in order, so each
+ * loss holds back every move behind it. Pointer moves arrive after the one way delay or never.
+ * <pre>
+ * --loss 0,1,2,5,10    packet loss percentages
+ * --delay 40           one way delay, ms
+ * --jitter 5           extra random delay per packet, 0 to this, ms
+ * --rate 120           moves per second
+ * --rto 1000           first retransmission timeout, ms (usrsctp minimum)
+ * --duration 600       simulated seconds per loss
+ * --seed 1
+ * </pre>
+ */
+public final class PointerLatencySimulation {
+
+    // SCTP fast retransmits after this many acks reporting the same gap.
+    private static final int FAST_RETRANSMIT_ACKS = 3;
+    private static final long MAX_LATENCY_US = TimeUnit.SECONDS.toMicros(120);
+
+    private PointerLatencySimulation() {
+    }
+
+    public static void main(String[] args) {
+        String[] losses = option(args, "--loss", "0,1,2,5,10").split(",");
+        double delayMs = Double.parseDouble(option(args, "--delay", "40"));
+        double jitterMs = Double.parseDouble(option(args, "--jitter", "5"));
+        double rate = Double.parseDouble(option(args, "--rate", "120"));
+        double rtoMs = Double.parseDouble(option(args, "--rto", "1000"));
+        long durationS = Long.parseLong(option(args, "--duration", "600"));
+        long seed = Long.parseLong(option(args, "--seed", "1"));
+
+        int count = (int) (durationS * rate);
+        double[] sent = new double[count];
+        DataChannelRoute[] routes = new DataChannelRoute[count];
+        ByteBuffer message = TouchEventCodec.allocate();
+        for (int i = 0; i < count; i++) {
+            sent[i] = i * 1000 / rate;
+            TouchEventCodec.encode(message, DataChannelRoute.ACTION_MOVE, 0, i, 0.5f, 0.5f, (long) sent[i]);
+            routes[i] = DataChannelRoute.of(message);
+        }
+
+        System.out.printf("%d moves/s for %ds, one way delay %.0f ms + 0..%.0f ms jitter, first RTO %.0f ms%n",
+                (int) rate, durationS, delayMs, jitterMs, rtoMs);
+        System.out.println("        | backcontrol ms                  | pointer ms                      |");
+        System.out.println("loss %  |     p50     p99    p999     max |     p50     p99    p999     max | pointer moves lost");
+        for (String loss : losses) {
+            double p = Double.parseDouble(loss.trim()) / 100;
+            // Same losses and jitter for both, only the channel differs.
+            double[] reliable = reliable(sent, p, delayMs, jitterMs, rtoMs, new Random(seed));
+            double[] routed = new double[count];
+            double[] pointer = unreliable(sent, p, delayMs, jitterMs, new Random(seed));
+            int lost = 0;
+            for (int i = 0; i < count; i++) {
+                routed[i] = routes[i] == DataChannelRoute.POINTER ? pointer[i] : reliable[i];
+                if (Double.isInfinite(routed[i])) {
+                    lost++;
+                }
+            }
+            Histogram before = staleness(sent, reliable);
+            Histogram after = staleness(sent, routed);
+            System.out.printf("%6s  | %7.1f %7.1f %7.1f %7.1f | %7.1f %7.1f %7.1f %7.1f | %d (%.2f%%)%n",
+                    loss.trim(),
+                    ms(before, 50), ms(before, 99), ms(before, 99.9), before.getMaxValue() / 1e3,
+                    ms(after, 50), ms(after, 99), ms(after, 99.9), after.getMaxValue() / 1e3,
+                    lost, 100.0 * lost / count);
+        }
+    }
+
+    /**
+     * @return delivery time of every packet on a reliable ordered channel.
+     */
+    private static double[] reliable(double[] sent, double loss, double delayMs, double jitterMs, double rtoMs, Random random) {
+        int count = sent.length;
+        double[] delivered = new double[count];
+        double previous = 0;
+        for (int i = 0; i < count; i++) {
+            double arrival;
+            if (random.nextDouble() >= loss) {
+                arrival = sent[i] + delayMs + random.nextDouble() * jitterMs;
+            } else {
+                // Acks of later packets report the gap, idle senders only have the timer.
+                int acked = Math.min(i + FAST_RETRANSMIT_ACKS, count - 1);
+                double retransmit = acked > i ? sent[acked] + 2 * delayMs : sent[i] + rtoMs;
+                double rto = rtoMs;
+                while (random.nextDouble() < loss) {
+                    retransmit += rto;
+                    rto *= 2;
+                }
+                arrival = retransmit + delayMs + random.nextDouble() * jitterMs;
+            }
+            // In order: nothing is handed over before everything sent earlier.
+            previous = Math.max(previous, arrival);
+            delivered[i] = previous;
+        }
+        return delivered;
+    }
+
+    /**
+     * @return arrival time of every packet on an unordered channel without retransmissions, infinite
+     * when lost.
+     */
+    private static double[] unreliable(double[] sent, double loss, double delayMs, double jitterMs, Random random) {
+        double[] delivered = new double[sent.length];
+        for (int i = 0; i < sent.length; i++) {
+            delivered[i] = random.nextDouble() >= loss
+                    ? sent[i] + delayMs + random.nextDouble() * jitterMs
+                    : Double.POSITIVE_INFINITY;
+        }
+        return delivered;
+    }
+
+    /**
+     * Time from sending each move until it or a newer one has been delivered, older ones arriving
+     * later are dropped by the receiver.
+     */
+    private static Histogram staleness(double[] sent, double[] delivered) {
+        Histogram histogram = new Histogram(MAX_LATENCY_US, 3);
+        double first = Double.POSITIVE_INFINITY;
+        for (int i = sent.length - 1; i >= 0; i--) {
+            first = Math.min(first, delivered[i]);
+            if (!Double.isInfinite(first)) {
+                histogram.recordValue(Math.min(MAX_LATENCY_US, (long) ((first - sent[i]) * 1000)));
+            }
+        }
+        return histogram;
+    }
+
+    private static double ms(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e3;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+}
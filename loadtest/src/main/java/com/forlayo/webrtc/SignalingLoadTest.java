@@ -0,0 +1,221 @@
+package com.forlayo.webrtc;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.socket.client.IO;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Runs N {@link SimulatedPair}s against a signaling relay and reports, every few seconds and at the end,
+ * messages and negotiations per second plus p50/p99/p999 of relay latency (send to receive of one
+ * message) and of a whole negotiation (offer sent to every candidate received on both sides), and the
+ * negotiations that timed out with the messages they lost.
+ * <pre>
+ * --url http://127.0.0.1:3000   relay (server/server.js or :relay)
+ * --pairs 100                   simulated caller/callee pairs
+ * --candidates 8                candidates sent by each side per negotiation
+ * --batch 16                    candidates per "candidates" message, 1 sends them one by one
+ * --pause 0                     ms between negotiations of a pair, 0 is a closed loop at full speed
+ * --timeout 10000               ms a negotiation has before its missing messages count as lost and
+ *                               the pair starts over
+ * --warmup 10 --duration 60     seconds
+ * </pre>
+ */
+public final class SignalingLoadTest {
+
+    private static final long REPORT_INTERVAL_S = 5;
+    private static final long CONNECT_TIMEOUT_MS = 30_000;
+
+    private static String offerSdp;
+
+    private SignalingLoadTest() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (Exception e) {
+            e.printStackTrace();
+            // Socket threads would keep the JVM alive.
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String[] args) throws Exception {
+        String url = option(args, "--url", "http://127.0.0.1:3000");
+        int pairCount = Integer.parseInt(option(args, "--pairs", "100"));
+        int candidates = Integer.parseInt(option(args, "--candidates", "8"));
+        int batch = Integer.parseInt(option(args, "--batch", "16"));
+        long warmupS = Long.parseLong(option(args, "--warmup", "10"));
+        long durationS = Long.parseLong(option(args, "--duration", "60"));
+        long pauseMs = Long.parseLong(option(args, "--pause", "0"));
+        long timeoutMs = Long.parseLong(option(args, "--timeout", "10000"));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // Every websocket holds a dispatcher slot for its whole life, OkHttp allows 5 per host by default.
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        OkHttpClient httpClient = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        IO.setDefaultOkHttpWebSocketFactory(httpClient);
+        IO.setDefaultOkHttpCallFactory(httpClient);
+
+        offerSdp = resource("offer.sdp").replace("\r\n", "\n").replace("\n", "\r\n");
+        Recorder relayLatency = new Recorder(TimeUnit.SECONDS.toNanos(60), 3);
+        Recorder setupLatency = new Recorder(TimeUnit.SECONDS.toNanos(60), 3);
+        SimulatedPair.Counters counters = new SimulatedPair.Counters();
+
+        System.out.println("Connecting " + pairCount + " pairs to " + url + ", " + candidates
+                + " candidates per side in batches of " + batch);
+        List<SimulatedPair> pairs = new ArrayList<>(pairCount);
+        for (int i = 0; i < pairCount; i++) {
+            SimulatedPair pair = new SimulatedPair(url, i, candidates, batch, pauseMs, timeoutMs, scheduler,
+                    relayLatency, setupLatency, counters);
+            pairs.add(pair);
+            pair.connect();
+        }
+        awaitConnected(pairs);
+
+        for (SimulatedPair pair : pairs) {
+            pair.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupS));
+        Snapshot start = new Snapshot(counters);
+        relayLatency.reset();
+        setupLatency.reset();
+        Histogram totalRelay = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+        Histogram totalSetup = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+
+        Snapshot previous = start;
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationS);
+        while (System.nanoTime() < endNanos) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(Math.min(REPORT_INTERVAL_S, Math.max(1, durationS))));
+            Snapshot now = new Snapshot(counters);
+            Histogram relay = relayLatency.getIntervalHistogram();
+            Histogram setup = setupLatency.getIntervalHistogram();
+            totalRelay.add(relay);
+            totalSetup.add(setup);
+            report("interval", previous, now, relay, setup);
+            previous = now;
+        }
+
+        for (SimulatedPair pair : pairs) {
+            pair.stop();
+        }
+        report("total", start, new Snapshot(counters), totalRelay, totalSetup);
+        for (SimulatedPair pair : pairs) {
+            pair.close();
+        }
+    }
+
+    static String offerSdp() {
+        return offerSdp;
+    }
+
+    static String candidateLine(int index) {
+        return "candidate:" + (842163049 + index) + " 1 " + (index % 3 == 0 ? "tcp" : "udp") + " 1686052607 "
+                + "83.45.12." + (index % 250) + " " + (50000 + index)
+                + " typ srflx raddr 192.168.1." + (index % 250) + " rport " + (50000 + index)
+                + " generation 0 ufrag S3fh network-id 3 network-cost 10";
+    }
+
+    private static void awaitConnected(List<SimulatedPair> pairs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (true) {
+            int connected = 0;
+            for (SimulatedPair pair : pairs) {
+                if (pair.isConnected()) {
+                    connected++;
+                }
+            }
+            if (connected == pairs.size()) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + connected + " of " + pairs.size() + " pairs connected");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static void report(String label, Snapshot from, Snapshot to, Histogram relay, Histogram setup) {
+        double seconds = (to.nanos - from.nanos) / 1e9;
+        System.out.printf("%-8s msgs/s sent %.0f delivered %.0f | negotiations/s %.1f | timeouts %d lost %d"
+                        + " | foreign %d errors %d%n",
+                label,
+                (to.sent - from.sent) / seconds,
+                (to.delivered - from.delivered) / seconds,
+                (to.sessions - from.sessions) / seconds,
+                to.timeouts - from.timeouts,
+                to.lost - from.lost,
+                to.foreign - from.foreign,
+                to.errors - from.errors);
+        System.out.printf("         relay ms p50 %.2f p99 %.2f p999 %.2f max %.2f | negotiation ms p50 %.2f p99 %.2f p999 %.2f%n",
+                ms(relay, 50), ms(relay, 99), ms(relay, 99.9), relay.getMaxValue() / 1e6,
+                ms(setup, 50), ms(setup, 99), ms(setup, 99.9));
+    }
+
+    private static double ms(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream in = SignalingLoadTest.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Snapshot {
+        final long nanos = System.nanoTime();
+        final long sent;
+        final long delivered;
+        final long sessions;
+        final long timeouts;
+        final long lost;
+        final long foreign;
+        final long errors;
+
+        Snapshot(SimulatedPair.Counters counters) {
+            sent = counters.sent.get();
+            delivered = counters.delivered.get();
+            sessions = counters.sessions.get();
+            timeouts = counters.timeouts.get();
+            lost = counters.lost.get();
+            foreign = counters.foreign.get();
+            errors = counters.errors.get();
+        }
+    }
+
+}
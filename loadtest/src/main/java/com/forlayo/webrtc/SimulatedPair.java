@@ -0,0 +1,300 @@
+package com.forlayo.webrtc;
+
+import org.HdrHistogram.Recorder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+
+/**
+ * A caller and a callee socket doing what two WebRTCCall instances send through MainActivity: offer,
+ * answer and ICE candidates (batched as IceCandidateBatcher does), over and over, back to back or with
+ * a pause between negotiations.
+ * <p>
+ * Every payload carries the session id of its negotiation, messages of other sessions (a relay that
+ * broadcasts to every socket) are counted but ignored, and an extra "lt" field with the System.nanoTime()
+ * of the send, used for relay latency since both ends live in this JVM.
+ * <p>
+ * A negotiation not complete within its deadline counts as a timeout, what was sent for it and not
+ * received as lost, and a new one starts. Otherwise one lost message would stall the pair for good.
+ */
+final class SimulatedPair {
+
+    static final String LATENCY_FIELD = "lt";
+
+    private final int index;
+    private final int candidateCount;
+    private final int batchSize;
+    private final Recorder relayLatency;
+    private final Recorder setupLatency;
+    private final Counters counters;
+    private final ScheduledExecutorService scheduler;
+    private final long pauseMs;
+    private final long timeoutMs;
+    private final Socket caller;
+    private final Socket callee;
+
+    // Guarded by this, socket callbacks may come from several threads.
+    private String sessionId;
+    private int sessionCount;
+    private long sessionStartNanos;
+    private ScheduledFuture<?> sessionDeadline;
+    private int sessionSent;
+    private int sessionDelivered;
+    private boolean answerReceived;
+    private int callerCandidatesReceived;
+    private int calleeCandidatesReceived;
+    private volatile boolean running;
+
+    static final class Counters {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong foreign = new AtomicLong();
+        final AtomicLong sessions = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong lost = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * @param pauseMs   wait between the end of a negotiation and the next one, 0 runs back to back.
+     * @param timeoutMs time a negotiation has to complete before it's abandoned.
+     * @param scheduler runs the next negotiation after a pause, and deadlines.
+     */
+    SimulatedPair(String url, int index, int candidateCount, int batchSize, long pauseMs, long timeoutMs,
+                  ScheduledExecutorService scheduler, Recorder relayLatency, Recorder setupLatency, Counters counters)
+            throws URISyntaxException {
+        this.index = index;
+        this.candidateCount = candidateCount;
+        this.batchSize = Math.max(1, batchSize);
+        this.relayLatency = relayLatency;
+        this.setupLatency = setupLatency;
+        this.counters = counters;
+        this.pauseMs = pauseMs;
+        this.timeoutMs = timeoutMs;
+        this.scheduler = scheduler;
+        this.caller = createSocket(url, index);
+        this.callee = createSocket(url, index);
+        caller.on("message", args -> onCallerMessage(args[0]));
+        callee.on("message", args -> onCalleeMessage(args[0]));
+    }
+
+    private static Socket createSocket(String url, int index) throws URISyntaxException {
+        IO.Options options = new IO.Options();
+        // One connection per simulated device, not multiplexed.
+        options.forceNew = true;
+        options.reconnection = false;
+        options.transports = new String[]{"websocket"};
+        // Rooms for relays that support them, the node prototype ignores it.
+        options.query = "room=loadtest-" + index;
+        return IO.socket(url, options);
+    }
+
+    void connect() {
+        caller.connect();
+        callee.connect();
+    }
+
+    boolean isConnected() {
+        return caller.connected() && callee.connected();
+    }
+
+    void start() {
+        running = true;
+        startSession();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    void close() {
+        running = false;
+        synchronized (this) {
+            cancelDeadline();
+        }
+        caller.off();
+        callee.off();
+        caller.disconnect();
+        callee.disconnect();
+    }
+
+    private synchronized void startSession() {
+        if (!running) {
+            return;
+        }
+        sessionId = "lt-" + index + "-" + (sessionCount++);
+        sessionStartNanos = System.nanoTime();
+        answerReceived = false;
+        callerCandidatesReceived = 0;
+        calleeCandidatesReceived = 0;
+        sessionSent = 0;
+        sessionDelivered = 0;
+        String session = sessionId;
+        sessionDeadline = scheduler.schedule(() -> onDeadline(session), timeoutMs, TimeUnit.MILLISECONDS);
+
+        SdpSignaling offer = new SdpSignaling();
+        offer.setType("offer");
+        offer.setSdp(SignalingLoadTest.offerSdp());
+        offer.setSessionId(sessionId);
+        send(caller, offer);
+        sendCandidates(caller, sessionId);
+    }
+
+    private void onCallerMessage(Object payload) {
+        SdpSignaling signaling = receive(payload);
+        if (signaling == null) {
+            return;
+        }
+        synchronized (this) {
+            if ("answer".equals(signaling.getType())) {
+                answerReceived = true;
+            } else {
+                callerCandidatesReceived += countCandidates(signaling);
+            }
+            checkSessionComplete();
+        }
+    }
+
+    private void onCalleeMessage(Object payload) {
+        SdpSignaling signaling = receive(payload);
+        if (signaling == null) {
+            return;
+        }
+        synchronized (this) {
+            if ("offer".equals(signaling.getType())) {
+                SdpSignaling answer = new SdpSignaling();
+                answer.setType("answer");
+                answer.setSdp(SignalingLoadTest.offerSdp());
+                answer.setSessionId(sessionId);
+                send(callee, answer);
+                sendCandidates(callee, sessionId);
+            } else {
+                calleeCandidatesReceived += countCandidates(signaling);
+            }
+            checkSessionComplete();
+        }
+    }
+
+    private void checkSessionComplete() {
+        if (!answerReceived || callerCandidatesReceived < candidateCount || calleeCandidatesReceived < candidateCount) {
+            return;
+        }
+        setupLatency.recordValue(System.nanoTime() - sessionStartNanos);
+        counters.sessions.incrementAndGet();
+        cancelDeadline();
+        sessionId = null;
+        if (pauseMs > 0) {
+            scheduler.schedule(this::startSession, pauseMs, TimeUnit.MILLISECONDS);
+        } else {
+            startSession();
+        }
+    }
+
+    private synchronized void onDeadline(String session) {
+        if (!running || !session.equals(sessionId)) {
+            return;
+        }
+        counters.timeouts.incrementAndGet();
+        counters.lost.addAndGet(sessionSent - sessionDelivered);
+        // Late messages of this one come as foreign.
+        sessionDeadline = null;
+        sessionId = null;
+        startSession();
+    }
+
+    private void cancelDeadline() {
+        if (sessionDeadline != null) {
+            sessionDeadline.cancel(false);
+            sessionDeadline = null;
+        }
+    }
+
+    /**
+     * Decodes like MainActivity and records relay latency, null for messages of other sessions.
+     */
+    private SdpSignaling receive(Object payload) {
+        long receivedNanos = System.nanoTime();
+        try {
+            SdpSignaling signaling = SdpSignalingCodec.fromPayload(payload);
+            synchronized (this) {
+                if (sessionId == null || !sessionId.equals(signaling.getSessionId())) {
+                    counters.foreign.incrementAndGet();
+                    return null;
+                }
+                sessionDelivered++;
+            }
+            if (payload instanceof JSONObject && ((JSONObject) payload).has(LATENCY_FIELD)) {
+                relayLatency.recordValue(Math.max(0, receivedNanos - ((JSONObject) payload).getLong(LATENCY_FIELD)));
+            }
+            counters.delivered.incrementAndGet();
+            return signaling;
+        } catch (IOException | JSONException e) {
+            counters.errors.incrementAndGet();
+            return null;
+        }
+    }
+
+    private static int countCandidates(SdpSignaling signaling) {
+        if ("candidate".equals(signaling.getType())) {
+            return 1;
+        }
+        if ("candidates".equals(signaling.getType()) && signaling.getCandidates() != null) {
+            return signaling.getCandidates().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Groups of batchSize as "candidates", a group of one as a plain "candidate".
+     */
+    private void sendCandidates(Socket socket, String session) {
+        for (int first = 0; first < candidateCount; first += batchSize) {
+            int count = Math.min(batchSize, candidateCount - first);
+            SdpSignaling signaling = new SdpSignaling();
+            signaling.setSessionId(session);
+            if (count == 1) {
+                signaling.setType("candidate");
+                signaling.setSdpMid("audio");
+                signaling.setSdpMLineIndex(0);
+                signaling.setSdp(SignalingLoadTest.candidateLine(first));
+            } else {
+                List<SdpSignaling.Candidate> candidates = new ArrayList<>(count);
+                for (int i = first; i < first + count; i++) {
+                    SdpSignaling.Candidate candidate = new SdpSignaling.Candidate();
+                    candidate.setSdpMid(i % 2 == 0 ? "audio" : "video");
+                    candidate.setSdpMLineIndex(i % 2);
+                    candidate.setSdp(SignalingLoadTest.candidateLine(i));
+                    candidates.add(candidate);
+                }
+                signaling.setType("candidates");
+                signaling.setCandidates(candidates);
+            }
+            send(socket, signaling);
+        }
+    }
+
+    // Called holding this.
+    private void send(Socket socket, SdpSignaling signaling) {
+        try {
+            JSONObject payload = SdpSignalingCodec.toJsonObject(signaling);
+            payload.put(LATENCY_FIELD, System.nanoTime());
+            socket.emit("message", payload);
+            counters.sent.incrementAndGet();
+            sessionSent++;
+        } catch (JSONException e) {
+            counters.errors.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.forlayo.webrtc.relay;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.handler.ClientHead;
+import com.corundumstudio.socketio.protocol.Packet;
+import com.corundumstudio.socketio.protocol.PacketType;
+import com.corundumstudio.socketio.transport.NamespaceClient;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection in one room. Its outbound queue is bounded: a peer that can't take messages as fast as
+ * its room produces them is disconnected instead of making the relay buffer without limit.
+ * <p>
+ * Messages leave the queue only while fewer than {@link #MAX_IN_FLIGHT} writes to the socket are
+ * unfinished, so a slow reader fills its queue here, where the bound applies, and not netty's outbound
+ * buffer. The write that brings it back under the limit asks the shard to flush it again. Polling
+ * transports have no write until the client polls, their messages aren't counted.
+ * <p>
+ * Owned by the {@link Shard} of its room and only touched from that shard thread, but for the in flight
+ * count; moving to another room creates a new Peer.
+ */
+final class Peer {
+
+    private final SocketIOClient client;
+    private final String room;
+    private final Shard shard;
+    private final int outboundCapacity;
+    private final ArrayDeque<Object> outbound;
+    private final ClientHead transport;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final GenericFutureListener<Future<? super Void>> writeListener = future -> onWritten();
+    private boolean evicted;
+    private boolean scheduled;
+    private boolean left;
+
+    static final int MAX_IN_FLIGHT = 16;
+
+    Peer(SocketIOClient client, String room, Shard shard, int outboundCapacity) {
+        this.client = client;
+        this.room = room;
+        this.shard = shard;
+        this.outboundCapacity = outboundCapacity;
+        this.outbound = new ArrayDeque<>(Math.min(outboundCapacity, 16));
+        this.transport = client instanceof NamespaceClient ? ((NamespaceClient) client).getBaseClient() : null;
+    }
+
+    SocketIOClient getClient() {
+        return client;
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    Shard getShard() {
+        return shard;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Set by the shard while the peer waits in its flush round.
+     */
+    boolean isScheduled() {
+        return scheduled;
+    }
+
+    void setScheduled(boolean scheduled) {
+        this.scheduled = scheduled;
+    }
+
+    /**
+     * Set by the shard when it leaves the room, a join handled after that is ignored.
+     */
+    boolean hasLeft() {
+        return left;
+    }
+
+    void setLeft() {
+        left = true;
+    }
+
+    boolean isWritable() {
+        return inFlight.get() < MAX_IN_FLIGHT;
+    }
+
+    /**
+     * @return false if the queue is full, the peer is then evicted and gets nothing else.
+     */
+    boolean enqueue(Object message) {
+        if (evicted) {
+            return false;
+        }
+        if (outbound.size() >= outboundCapacity || !client.isChannelOpen()) {
+            evicted = true;
+            outbound.clear();
+            return false;
+        }
+        outbound.add(message);
+        return true;
+    }
+
+    boolean hasPending() {
+        return !outbound.isEmpty();
+    }
+
+    /**
+     * Hands queued messages to the transport, at most max of them and while it's writable.
+     *
+     * @return number of messages sent.
+     */
+    int flush(int max) {
+        int sent = 0;
+        Object message;
+        while (sent < max && isWritable() && (message = outbound.poll()) != null) {
+            send(message);
+            sent++;
+        }
+        return sent;
+    }
+
+    private void send(Object message) {
+        if (transport == null) {
+            client.sendEvent(SignalingRelay.EVENT_MESSAGE, message);
+            return;
+        }
+        // As NamespaceClient.sendEvent, which doesn't return the write.
+        Packet packet = new Packet(PacketType.MESSAGE);
+        packet.setSubType(PacketType.EVENT);
+        packet.setName(SignalingRelay.EVENT_MESSAGE);
+        packet.setData(Collections.singletonList(message));
+        packet.setNsp(client.getNamespace().getName());
+        ChannelFuture write = transport.send(packet);
+        if (write != null) {
+            inFlight.incrementAndGet();
+            write.addListener(writeListener);
+        }
+    }
+
+    // Netty event loop.
+    private void onWritten() {
+        if (inFlight.getAndDecrement() == MAX_IN_FLIGHT) {
+            shard.executeSchedule(this);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.forlayo.webrtc.relay;
+
+import com.corundumstudio.socketio.SocketIOClient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps rooms to shards by hash and connections to their current {@link Peer}. Called from the netty
+ * threads, everything touching a room runs on its shard.
+ */
+final class RoomRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoomRouter.class);
+
+    private final Shard[] shards;
+    private final int outboundCapacity;
+    private final Map<UUID, Peer> peers = new ConcurrentHashMap<>();
+
+    RoomRouter(int shardCount, int shardTaskCapacity, int outboundCapacity) {
+        if (shardCount <= 0 || shardTaskCapacity <= 0 || outboundCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid router config " + shardCount + "/" + shardTaskCapacity + "/" + outboundCapacity);
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, shardTaskCapacity);
+        }
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    void start() {
+        for (Shard shard : shards) {
+            shard.start();
+        }
+    }
+
+    void stop() {
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    /**
+     * Puts the connection in a room, leaving the one it was in.
+     */
+    void join(SocketIOClient client, String room) {
+        Peer previous = peers.get(client.getSessionId());
+        if (previous != null && previous.getRoom().equals(room)) {
+            return;
+        }
+        final Shard shard = shards[Math.floorMod(room.hashCode(), shards.length)];
+        final Peer peer = new Peer(client, room, shard, outboundCapacity);
+        peers.put(client.getSessionId(), peer);
+        if (previous != null) {
+            leaveShard(previous);
+        }
+        if (!shard.execute(() -> shard.join(peer))) {
+            LOG.warn("Shard busy, {} can't join room {}", client.getSessionId(), room);
+            peers.remove(client.getSessionId(), peer);
+            client.disconnect();
+        }
+    }
+
+    void leave(SocketIOClient client) {
+        Peer peer = peers.remove(client.getSessionId());
+        if (peer != null) {
+            leaveShard(peer);
+        }
+    }
+
+    // Not a bounded task, a peer left behind in a room would get messages forever.
+    private static void leaveShard(Peer peer) {
+        peer.getShard().executeLeave(peer);
+    }
+
+    /**
+     * Sends the message to the rest of the sender room. When the shard is over capacity the message is
+     * dropped and the sender disconnected: the app only replays what wasn't acked when it reconnects.
+     */
+    void route(SocketIOClient client, Object message) {
+        final Peer sender = peers.get(client.getSessionId());
+        if (sender == null) {
+            return;
+        }
+        if (!sender.getShard().execute(() -> sender.getShard().broadcast(sender, message))) {
+            LOG.warn("Shard busy, dropped a message of {} in room {}, disconnecting it", client.getSessionId(), sender.getRoom());
+            client.disconnect();
+        }
+    }
+
+    /**
+     * One line summary of every shard: peers, rooms, routed messages, rejected tasks, evicted peers.
+     */
+    String stats() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            builder.append(i == 0 ? "" : " | ").append('#').append(i)
+                    .append(" peers ").append(shard.getPeerCount())
+                    .append(" rooms ").append(shard.getRoomCount())
+                    .append(" routed ").append(shard.getRouted())
+                    .append(" rejected ").append(shard.getRejected())
+                    .append(" evicted ").append(shard.getEvicted());
+        }
+        return builder.toString();
+    }
+
+}
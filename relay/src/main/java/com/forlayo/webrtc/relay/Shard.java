@@ -0,0 +1,244 @@
+package com.forlayo.webrtc.relay;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One thread owning a subset of the rooms. Joins, leaves and messages of those rooms are queued to it,
+ * so room state needs no locking and a message only costs the size of its room.
+ * <p>
+ * The task queue is bounded too, work for a shard that can't keep up is dropped and counted. Leaves
+ * and peers writable again have their own unbounded queues instead, at most one entry per connection
+ * each, so they are never dropped and never wait on the netty threads.
+ */
+final class Shard implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Shard.class);
+
+    // Messages handed to the transport per peer and round, so one busy peer doesn't hold the others.
+    private static final int FLUSH_BATCH = 32;
+    private static final Runnable WAKE_UP = () -> {
+    };
+
+    private final int index;
+    private final BlockingQueue<Runnable> tasks;
+    private final Queue<Peer> leaving = new ConcurrentLinkedQueue<>();
+    private final Queue<Peer> writable = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    // Shard thread only.
+    private final Map<String, List<Peer>> rooms = new HashMap<>();
+    private final ArrayDeque<Peer> pendingPeers = new ArrayDeque<>();
+
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile int peerCount;
+    private volatile int roomCount;
+    private volatile boolean running = true;
+
+    Shard(int index, int taskCapacity) {
+        this.index = index;
+        this.tasks = new ArrayBlockingQueue<>(taskCapacity);
+        this.thread = new Thread(this, "relay-shard-" + index);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Queues work for the shard thread. Any thread.
+     *
+     * @return false if the shard queue is full and the task was dropped.
+     */
+    boolean execute(Runnable task) {
+        if (!tasks.offer(task)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues the peer to leave its room. Any thread, never fails nor blocks.
+     */
+    void executeLeave(Peer peer) {
+        leaving.add(peer);
+        // A full queue means the thread is busy and gets to the leave anyway.
+        tasks.offer(WAKE_UP);
+    }
+
+    /**
+     * Queues the peer back into the flush round once its writes drained. Any thread, never fails nor
+     * blocks.
+     */
+    void executeSchedule(Peer peer) {
+        writable.add(peer);
+        tasks.offer(WAKE_UP);
+    }
+
+    void join(Peer peer) {
+        if (peer.hasLeft()) {
+            // Its leave came first, from the other queue.
+            return;
+        }
+        List<Peer> members = rooms.get(peer.getRoom());
+        if (members == null) {
+            members = new ArrayList<>();
+            rooms.put(peer.getRoom(), members);
+        }
+        members.add(peer);
+        peerCount++;
+        roomCount = rooms.size();
+    }
+
+    void leave(Peer peer) {
+        peer.setLeft();
+        List<Peer> members = rooms.get(peer.getRoom());
+        if (members == null) {
+            return;
+        }
+        if (!members.remove(peer)) {
+            return;
+        }
+        if (members.isEmpty()) {
+            rooms.remove(peer.getRoom());
+        }
+        peerCount--;
+        roomCount = rooms.size();
+    }
+
+    /**
+     * Queues the message to every other peer of the sender room, peers with a full queue are evicted.
+     */
+    void broadcast(Peer sender, Object message) {
+        List<Peer> members = rooms.get(sender.getRoom());
+        if (members == null) {
+            return;
+        }
+        for (int i = 0; i < members.size(); i++) {
+            Peer peer = members.get(i);
+            if (peer == sender || peer.isEvicted()) {
+                continue;
+            }
+            if (peer.enqueue(message)) {
+                schedule(peer);
+            } else {
+                evicted.incrementAndGet();
+                LOG.warn("Evicting {} from room {}, outbound queue full", peer.getClient().getSessionId(), peer.getRoom());
+                peer.getClient().disconnect();
+            }
+        }
+        routed.incrementAndGet();
+    }
+
+    /**
+     * Adds the peer to the flush round if it has messages and isn't in it yet.
+     */
+    void schedule(Peer peer) {
+        if (!peer.isScheduled() && !peer.isEvicted() && peer.hasPending()) {
+            peer.setScheduled(true);
+            pendingPeers.add(peer);
+        }
+    }
+
+    long getRouted() {
+        return routed.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    long getEvicted() {
+        return evicted.get();
+    }
+
+    int getPeerCount() {
+        return peerCount;
+    }
+
+    int getRoomCount() {
+        return roomCount;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Runnable task = pendingPeers.isEmpty() ? tasks.take() : tasks.poll();
+                runLeaves();
+                runWritable();
+                // A batch of queued tasks goes before the transport, so fan outs get written together.
+                for (int i = 0; task != null; i++) {
+                    runTask(task);
+                    task = i < FLUSH_BATCH ? tasks.poll() : null;
+                }
+                flushRound();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Shard {} task failed", index, e);
+        }
+    }
+
+    private void runLeaves() {
+        Peer peer;
+        while ((peer = leaving.poll()) != null) {
+            leave(peer);
+        }
+    }
+
+    private void runWritable() {
+        Peer peer;
+        while ((peer = writable.poll()) != null) {
+            schedule(peer);
+        }
+    }
+
+    /**
+     * Peers not writable after their batch leave the round, their write completion or the next message
+     * brings them back.
+     */
+    private void flushRound() {
+        for (int i = pendingPeers.size(); i > 0; i--) {
+            Peer peer = pendingPeers.poll();
+            if (peer.isEvicted()) {
+                peer.setScheduled(false);
+                continue;
+            }
+            peer.flush(FLUSH_BATCH);
+            if (peer.hasPending() && peer.isWritable()) {
+                pendingPeers.add(peer);
+            } else {
+                peer.setScheduled(false);
+            }
+        }
+    }
+
+}
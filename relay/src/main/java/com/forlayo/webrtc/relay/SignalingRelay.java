@@ -0,0 +1,94 @@
+package com.forlayo.webrtc.relay;
+
+import com.corundumstudio.socketio.Configuration;
+import com.corundumstudio.socketio.SocketConfig;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signaling relay with the protocol of server/server.js: every "message" event is forwarded as is to
+ * the other sockets of the sender room.
+ * <p>
+ * Sockets join the room given in the "room" query parameter of their connection URL, "ultraRoom" when
+ * missing as the node server does, and can move with a "join" event carrying the room name. Rooms are
+ * spread over {@link Shard} threads and socket I/O stays on the netty event loops, no thread per
+ * connection.
+ */
+public final class SignalingRelay {
+
+    static final String EVENT_MESSAGE = "message";
+    static final String EVENT_JOIN = "join";
+    static final String DEFAULT_ROOM = "ultraRoom";
+
+    private static final Logger LOG = LoggerFactory.getLogger(SignalingRelay.class);
+    private static final String ROOM_PARAMETER = "room";
+    private static final long STATS_INTERVAL_S = 10;
+
+    private final SocketIOServer server;
+    private final RoomRouter router;
+    private final ScheduledExecutorService statsExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    public SignalingRelay(String host, int port, int shardCount, int shardTaskCapacity, int outboundCapacity) {
+        Configuration configuration = new Configuration();
+        configuration.setHostname(host);
+        configuration.setPort(port);
+        SocketConfig socketConfig = new SocketConfig();
+        socketConfig.setReuseAddress(true);
+        socketConfig.setTcpNoDelay(true);
+        configuration.setSocketConfig(socketConfig);
+
+        router = new RoomRouter(shardCount, shardTaskCapacity, outboundCapacity);
+        server = new SocketIOServer(configuration);
+        server.addConnectListener(client -> router.join(client, roomOf(client)));
+        server.addDisconnectListener(router::leave);
+        server.addEventListener(EVENT_MESSAGE, Object.class, (client, data, ackRequest) -> router.route(client, data));
+        server.addEventListener(EVENT_JOIN, String.class, (client, room, ackRequest) -> {
+            if (room != null && !room.isEmpty()) {
+                router.join(client, room);
+            }
+        });
+    }
+
+    public void start() {
+        router.start();
+        server.start();
+        statsExecutor.scheduleAtFixedRate(() -> LOG.info(router.stats()), STATS_INTERVAL_S, STATS_INTERVAL_S, TimeUnit.SECONDS);
+        LOG.info("Signaling relay listening at {}:{}", server.getConfiguration().getHostname(), server.getConfiguration().getPort());
+    }
+
+    public void stop() {
+        statsExecutor.shutdownNow();
+        server.stop();
+        router.stop();
+    }
+
+    private static String roomOf(SocketIOClient client) {
+        String room = client.getHandshakeData().getSingleUrlParam(ROOM_PARAMETER);
+        return room == null || room.isEmpty() ? DEFAULT_ROOM : room;
+    }
+
+    public static void main(String[] args) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        final SignalingRelay relay = new SignalingRelay(
+                env("IP", "0.0.0.0"),
+                Integer.parseInt(env("PORT", "3000")),
+                Integer.parseInt(env("RELAY_SHARDS", String.valueOf(cores))),
+                Integer.parseInt(env("RELAY_SHARD_TASKS", "65536")),
+                Integer.parseInt(env("RELAY_OUTBOUND_CAPACITY", "256")));
+        relay.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(relay::stop));
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+}